@@ -0,0 +1,5 @@
+#!/bin/sh
+# A crf_test which fails on its model.
+echo "reading model" >&2
+echo "model file is broken" >&2
+exit 3
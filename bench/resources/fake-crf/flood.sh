@@ -0,0 +1,10 @@
+#!/bin/sh
+# A crf_test which writes about 1.5MB on stderr before its output, more than
+# a pipe holds if stderr is not drained.
+i=0
+while [ $i -lt 20000 ]; do
+  echo "warning: line $i of a very verbose run, padded to about a hundred bytes" >&2
+  i=$((i + 1))
+done
+echo "done" >&2
+echo "word	NN	M:N	O"
@@ -0,0 +1,4 @@
+#!/bin/sh
+# A crf_test which never answers. exec, so that killing the process closes
+# its pipes.
+exec sleep 600
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Document;
+import gate.Factory;
+import gate.LanguageAnalyser;
+import gate.util.GateException;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The ANNIE stages created by SignTagger.loadController, measured one at a
+ * time. Before each invocation a fresh document is created and the stages
+ * before the measured one are run on it.
+ *
+ * @author dinel
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AnnieBenchmark {
+    
+    @Param({"small", "medium", "book"})
+    public String document;
+    
+    @Param({"tokeniser", "splitter", "pos"})
+    public String stage;
+    
+    private String text;
+    private LanguageAnalyser tokeniser;
+    private LanguageAnalyser splitter;
+    private LanguageAnalyser tagger;
+    
+    private LanguageAnalyser measured;
+    private LanguageAnalyser[] before;
+    private Document doc;
+    
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkDocuments.initGate();
+        text = BenchmarkDocuments.text(document);
+        tokeniser = BenchmarkDocuments.createPR("gate.creole.tokeniser.DefaultTokeniser");
+        splitter = BenchmarkDocuments.createPR("gate.creole.splitter.SentenceSplitter");
+        tagger = BenchmarkDocuments.createPR("gate.creole.POSTagger");
+        
+        switch(stage) {
+            case "tokeniser":
+                measured = tokeniser;
+                before = new LanguageAnalyser[0];
+                break;
+            case "splitter":
+                measured = splitter;
+                before = new LanguageAnalyser[]{tokeniser};
+                break;
+            default:
+                measured = tagger;
+                before = new LanguageAnalyser[]{tokeniser, splitter};
+        }
+    }
+    
+    @Setup(Level.Invocation)
+    public void prepareDocument() throws GateException {
+        doc = Factory.newDocument(text);
+        BenchmarkDocuments.annotate(doc, before);
+        measured.setDocument(doc);
+    }
+    
+    @TearDown(Level.Invocation)
+    public void releaseDocument() {
+        measured.setDocument(null);
+        Factory.deleteResource(doc);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        Factory.deleteResource(tokeniser);
+        Factory.deleteResource(splitter);
+        Factory.deleteResource(tagger);
+    }
+    
+    @Benchmark
+    public void execute() throws GateException {
+        measured.execute();
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.LanguageAnalyser;
+import gate.creole.ANNIEConstants;
+import gate.util.GateException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Documents and helpers shared by the benchmarks. GATE is initialised from
+ * the config.properties file in the working directory, like SimpleSyntaxApp.
+ *
+ * @author dinel
+ */
+
+class BenchmarkDocuments {
+    private static final String[] WORDS = {"the", "reader", "book", "page",
+        "children", "teacher", "story", "written", "found", "quickly", "old",
+        "house", "garden", "river", "city", "went", "saw", "gave", "long", "new"};
+    private static final String[] CATEGORIES = {"DT", "NN", "NN", "NN", "NNS",
+        "NN", "NN", "VBN", "VBD", "RB", "JJ", "NN", "NN", "NN", "NN", "VBD",
+        "VBD", "VBD", "JJ", "JJ"};
+    private static final String[] SIGNS = {"and", "which", "that", "when"};
+    private static final String[] TYPES = {"CMV1", "SSEV", "SSCCV", "CLN"};
+
+    /**
+     * The checked-in input documents, from bench/resources or the directory
+     * given by the bench.resources system property
+     */
+    static final String[] SIZES = {"small", "medium", "book"};
+
+    static Properties initGate() throws GateException, IOException {
+        PropertiesLoader loader = new PropertiesLoader();
+        loader.readProperties();
+        Properties props = loader.getProperties();
+        SimpleSyntaxApp.gateInit(props);
+        SignTagger.registerComponents();
+        return props;
+    }
+
+    /**
+     * @param size small, medium or book
+     * @return the text of a checked-in input document
+     */
+    static String text(String size) throws IOException {
+        Path dir = Paths.get(System.getProperty("bench.resources", "bench/resources"));
+        return new String(Files.readAllBytes(dir.resolve(size + ".txt")), StandardCharsets.UTF_8);
+    }
+
+    static Document document(String size) throws GateException, IOException {
+        return Factory.newDocument(text(size));
+    }
+
+    /**
+     * @return a copy of the configuration using a single worker
+     */
+    static Properties singleWorker(Properties props) {
+        Properties copy = new Properties();
+        copy.putAll(props);
+        copy.setProperty("PoolSize", "1");
+        return copy;
+    }
+
+    /**
+     * @param className one of the ANNIE PRs used by SignTagger.loadController
+     * @return the PR with its default parameters
+     */
+    static LanguageAnalyser createPR(String className) throws GateException {
+        return (LanguageAnalyser) Factory.createResource(className, Factory.newFeatureMap());
+    }
+
+    /**
+     * Creates the Groovy sign processor with the parameters used by
+     * SignTagger.loadSignProcessor, except for the labeller and the modes.
+     * @param props
+     * @param labeller the labeller, or null to run crf_test on the file
+     * @param predict whether predictions are made
+     * @param outFile the feature file
+     * @return the script PR
+     */
+    static LanguageAnalyser createSignProcessor(Properties props, CRFLabeller labeller,
+            boolean predict, File outFile) throws GateException {
+        return createSignProcessor("groovy", props, labeller, predict, outFile);
+    }
+
+    /**
+     * @param processor "groovy" for the script or "java" for SignProcessor
+     * @see #createSignProcessor(Properties, CRFLabeller, boolean, File)
+     */
+    static LanguageAnalyser createSignProcessor(String processor, Properties props,
+            CRFLabeller labeller, boolean predict, File outFile) throws GateException {
+        if("java".equals(processor)) {
+            FeatureMap params = Factory.newFeatureMap();
+            params.put("outFileBuffer", outFile.getPath());
+            params.put("prefix", PropertiesLoader.addFinalSlash(props.getProperty("ResourcesPrefix")));
+            params.put("crfPrefix", PropertiesLoader.addFinalSlash(props.getProperty("CRFPath")));
+            params.put("predictMode", predict);
+            if(labeller != null) params.put("crfLabeller", labeller);
+            return (LanguageAnalyser) Factory.createResource(SignProcessor.class.getName(), params);
+        }
+
+        FeatureMap params = Factory.newFeatureMap();
+        FeatureMap scriptParams = Factory.newFeatureMap();
+        params.put("inputASName", "");
+        params.put("outputASName", "syntax");
+        params.put("scriptURL", 
+                PropertiesLoader.addFinalSlash(props.getProperty("GroovyScriptPath")) +
+                        "exportCRFpr.v0.7.groovy");
+        scriptParams.put("useSyntax", "false");
+        scriptParams.put("outFileBuffer", outFile.getPath());
+        scriptParams.put("prefix", PropertiesLoader.addFinalSlash(props.getProperty("ResourcesPrefix")));
+        scriptParams.put("crfprefix", PropertiesLoader.addFinalSlash(props.getProperty("CRFPath")));
+        scriptParams.put("trainMode", "false");
+        scriptParams.put("buildMode", "false");
+        scriptParams.put("predictMode", String.valueOf(predict));
+        if(labeller != null) scriptParams.put("crfLabeller", labeller);
+        params.put("scriptParams", scriptParams);
+        return (LanguageAnalyser) Factory.createResource("gate.groovy.ScriptPR", params);
+    }
+
+    /**
+     * Runs the ANNIE stages of the pipeline on a document
+     */
+    static void annotate(Document doc, LanguageAnalyser... prs) throws GateException {
+        for(LanguageAnalyser pr : prs) {
+            pr.setDocument(doc);
+            pr.execute();
+        }
+    }
+
+    /**
+     * Creates a document which looks like the output of the tagger: Token,
+     * SpaceToken and Sentence annotations in the default set and sync signs,
+     * some of them spanning ", and", in the syntax set.
+     * @param sentences
+     * @param seed
+     * @return the document
+     * @throws GateException
+     */
+    static Document synthetic(int sentences, long seed) throws GateException {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder();
+        // start, end, kind (0 word, 1 space, 2 punctuation, 3 sign word)
+        List<long[]> spans = new ArrayList<>();
+        List<long[]> sentenceSpans = new ArrayList<>();
+        List<long[]> signSpans = new ArrayList<>();
+
+        for(int s = 0; s < sentences; s++) {
+            long sentenceStart = text.length();
+            int length = 8 + random.nextInt(25);
+            for(int w = 0; w < length; w++) {
+                if(w > 0) {
+                    spans.add(new long[]{text.length(), text.length() + 1, 1, 0});
+                    text.append(' ');
+                }
+                int choice = random.nextInt(10);
+                if(w > 0 && w < length - 1 && choice == 0) {
+                    // ", and" as one sign
+                    long start = text.length();
+                    spans.add(new long[]{start, start + 1, 2, 0});
+                    text.append(',');
+                    spans.add(new long[]{text.length(), text.length() + 1, 1, 0});
+                    text.append(' ');
+                    spans.add(new long[]{text.length(), text.length() + 3, 3, 0});
+                    text.append("and");
+                    signSpans.add(new long[]{start, text.length(), random.nextInt(TYPES.length)});
+                } else if(w > 0 && choice == 1) {
+                    String sign = SIGNS[random.nextInt(SIGNS.length)];
+                    long start = text.length();
+                    spans.add(new long[]{start, start + sign.length(), 3, 0});
+                    text.append(sign);
+                    signSpans.add(new long[]{start, text.length(), random.nextInt(TYPES.length)});
+                } else {
+                    int word = random.nextInt(WORDS.length);
+                    spans.add(new long[]{text.length(), text.length() + WORDS[word].length(), 0, word});
+                    text.append(WORDS[word]);
+                }
+            }
+            spans.add(new long[]{text.length(), text.length() + 1, 2, 0});
+            text.append('.');
+            sentenceSpans.add(new long[]{sentenceStart, text.length()});
+            spans.add(new long[]{text.length(), text.length() + 1, 1, 0});
+            text.append(s % 10 == 9 ? '\n' : ' ');
+        }
+
+        Document doc = Factory.newDocument(text.toString());
+        AnnotationSet annSet = doc.getAnnotations();
+        for(long[] span : spans) {
+            FeatureMap features = Factory.newFeatureMap();
+            String string = text.substring((int) span[0], (int) span[1]);
+            features.put("string", string);
+            if(span[2] == 1) {
+                annSet.add(span[0], span[1], ANNIEConstants.SPACE_TOKEN_ANNOTATION_TYPE, features);
+                continue;
+            }
+            features.put("category", span[2] == 0 ? CATEGORIES[(int) span[3]] :
+                    span[2] == 2 ? string : "CC");
+            annSet.add(span[0], span[1], ANNIEConstants.TOKEN_ANNOTATION_TYPE, features);
+        }
+        for(long[] span : sentenceSpans) {
+            annSet.add(span[0], span[1], ANNIEConstants.SENTENCE_ANNOTATION_TYPE,
+                    Factory.newFeatureMap());
+        }
+        AnnotationSet syntax = doc.getAnnotations("syntax");
+        for(long[] span : signSpans) {
+            FeatureMap features = Factory.newFeatureMap();
+            features.put("type", TYPES[(int) span[2]]);
+            syntax.add(span[0], span[1], "sync", features);
+        }
+        return doc;
+    }
+
+    /**
+     * @return a writer which throws away what is written
+     */
+    static Writer nullWriter() {
+        return new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+            }
+
+            @Override
+            public void write(String str, int off, int len) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of the pipeline stages and writes the results as JSON,
+ * by default in bench-results.json:
+ *
+ * java -cp <classpath> uk.ac.wlv.rgcl.openbooksigntagger.BenchmarkMain [JMH options]
+ *
+ * It must be started in a directory with a config.properties file. Any JMH
+ * option can be given, e.g. "Annie -p document=small" to run only the ANNIE
+ * stages on the small document, or "-rff other.json" to change the output.
+ *
+ * @author dinel
+ */
+
+public class BenchmarkMain {
+    
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+        
+        // defaults which the command line can override
+        if(options.getIncludes().isEmpty()) {
+            builder.include(BenchmarkMain.class.getPackage().getName() + ".*Benchmark");
+        }
+        if(!options.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if(!options.getResult().hasValue()) {
+            builder.result("bench-results.json");
+        }
+        
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Checks that CRFModel labels a reference corpus exactly like crf_test.
+ * The feature file is labelled by crf_test with the binary model and by
+ * CRFModel with the same file, and the run fails on the first sentence
+ * whose labels differ, or if crf_test prints a different number of rows.
+ *
+ * java -cp <classpath> uk.ac.wlv.rgcl.openbooksigntagger.CRFModelCheck
+ *     [features] [model]
+ *
+ * crf_test is taken from CRFPath and the model defaults to the one in
+ * ResourcesPrefix, as configured in config.properties. Without a feature
+ * file a synthetic corpus in the format of the sign processor is used.
+ *
+ * @author dinel
+ */
+
+public class CRFModelCheck {
+    
+    public static void main(String[] args) throws Exception {
+        PropertiesLoader loader = new PropertiesLoader();
+        loader.readProperties();
+        Properties props = loader.getProperties();
+        
+        File scratch = Files.createTempDirectory("signtagger-model").toFile();
+        File features = args.length > 0 ? new File(args[0]) : new File(scratch, "test.txt");
+        if(args.length == 0) CRFTrainerCheck.writeCorpus(features, 2000, 7);
+        File modelFile = args.length > 1 ? new File(args[1]) : new File(
+                PropertiesLoader.addFinalSlash(props.getProperty("ResourcesPrefix"))
+                        + SignTagger.MODEL_FILE);
+        File crfTest = new File(PropertiesLoader.addFinalSlash(props.getProperty("CRFPath"))
+                + "crf_test");
+        
+        List<List<String[]>> sentences = read(features);
+        List<String> expected = new ArrayList<>();
+        SubprocessManager subprocesses = new SubprocessManager(1, 0);
+        subprocesses.checkBinary(crfTest);
+        subprocesses.run(Arrays.asList(crfTest.getPath(), "-m", modelFile.getPath(),
+                features.getPath()), 0, (output) -> {
+            String line;
+            while((line = output.readLine()) != null) {
+                line = line.trim();
+                if(!line.isEmpty()) {
+                    String[] columns = line.split("\\s+");
+                    expected.add(columns[columns.length - 1]);
+                }
+            }
+        });
+        subprocesses.close();
+        
+        CRFModel model = CRFModel.load(modelFile);
+        int rows = 0;
+        int different = 0;
+        for(int s = 0; s < sentences.size(); s++) {
+            List<String[]> sentence = sentences.get(s);
+            String[] actual = model.label(sentence);
+            List<String> reference = expected.subList(
+                    Math.min(rows, expected.size()),
+                    Math.min(rows + sentence.size(), expected.size()));
+            if(!reference.equals(Arrays.asList(actual))) {
+                if(different++ < 10) {
+                    System.out.println("sentence " + s + ":\n  crf_test " + reference
+                            + "\n  CRFModel " + Arrays.asList(actual));
+                }
+            }
+            rows += sentence.size();
+        }
+        
+        System.out.printf("%d sentences, %d rows: %d labelled by crf_test, "
+                + "%d sentences different%n", sentences.size(), rows, expected.size(),
+                different);
+        if(args.length == 0) {
+            features.delete();
+        }
+        scratch.delete();
+        System.exit(different == 0 && rows == expected.size() ? 0 : 1);
+    }
+    
+    /**
+     * @return the rows of the feature file, one list per sentence
+     */
+    private static List<List<String[]>> read(File file) throws IOException {
+        List<List<String[]>> sentences = new ArrayList<>();
+        List<String[]> sentence = new ArrayList<>();
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while((line = input.readLine()) != null) {
+                line = line.trim();
+                if(line.isEmpty()) {
+                    if(!sentence.isEmpty()) sentences.add(sentence);
+                    sentence = new ArrayList<>();
+                } else {
+                    sentence.add(line.split("\\s+"));
+                }
+            }
+        }
+        if(!sentence.isEmpty()) sentences.add(sentence);
+        return sentences;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks CRFTrainer offline on a synthetic corpus in the format written by
+ * the sign processor in train mode (word, pos, marker and the gold type).
+ * The corpus is trained twice with the same number of threads and the two
+ * models must be identical; the model is then loaded by CRFModel and its
+ * accuracy on the signs of the corpus is printed, with the training time.
+ * The check fails if the models differ or the accuracy is below the floor.
+ *
+ * java -cp <classpath> uk.ac.wlv.rgcl.openbooksigntagger.CRFTrainerCheck
+ *     [template] [sentences] [threads] [floor]
+ *
+ * The template defaults to src/resources/template-crf.txt and the floor to
+ * 95 (percent of the signs).
+ *
+ * @author dinel
+ */
+
+public class CRFTrainerCheck {
+    
+    private static final String[] WORDS = {"the", "reader", "book", "page",
+        "opens", "reads", "long", "story", "quickly", "old"};
+    private static final String[] CATEGORIES = {"DT", "NN", "NN", "NN", "VBZ",
+        "VBZ", "JJ", "NN", "RB", "JJ"};
+    private static final String[] SIGNS = {",", "and", "which", "that", ",and"};
+    
+    public static void main(String[] args) throws Exception {
+        File template = new File(args.length > 0 ? args[0] : "src/resources/template-crf.txt");
+        int sentences = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) :
+                Runtime.getRuntime().availableProcessors();
+        double floor = args.length > 3 ? Double.parseDouble(args[3]) : 95;
+        
+        File scratch = Files.createTempDirectory("signtagger-trainer").toFile();
+        File corpus = new File(scratch, "train.txt");
+        List<List<String[]>> rows = writeCorpus(corpus, sentences, 42);
+        
+        File first = new File(scratch, "first.model");
+        File second = new File(scratch, "second.model");
+        long start = System.nanoTime();
+        trainer(threads).train(template, corpus, first);
+        long elapsed = System.nanoTime() - start;
+        trainer(threads).train(template, corpus, second);
+        
+        boolean identical = Arrays.equals(Files.readAllBytes(first.toPath()),
+                Files.readAllBytes(second.toPath()));
+        
+        CRFModel model = CRFModel.load(first);
+        int signs = 0;
+        int correct = 0;
+        for(List<String[]> sentence : rows) {
+            String[] predicted = model.label(sentence);
+            for(int i = 0; i < predicted.length; i++) {
+                String[] row = sentence.get(i);
+                if(!"M:Y".equals(row[2])) continue;
+                signs++;
+                if(row[3].equals(predicted[i])) correct++;
+            }
+        }
+        
+        double accuracy = 100.0 * correct / Math.max(signs, 1);
+        System.out.printf("%d sentences, %d threads: trained in %.1f s, models %s, "
+                + "%.1f%% of %d signs labelled correctly (floor %.1f%%)%n", sentences, threads,
+                elapsed / 1e9, identical ? "identical" : "DIFFERENT", accuracy, signs, floor);
+        
+        for(File f : scratch.listFiles()) f.delete();
+        scratch.delete();
+        if(!identical || accuracy < floor) System.exit(1);
+    }
+    
+    private static CRFTrainer trainer(int threads) {
+        CRFTrainer trainer = new CRFTrainer();
+        trainer.setCutoff(3);
+        trainer.setThreads(threads);
+        trainer.setMaxIterations(200);
+        return trainer;
+    }
+    
+    /**
+     * Writes sentences where the type of a sign depends on the words around
+     * it, so the model has something to learn
+     * @return the rows written, one list per sentence
+     */
+    static List<List<String[]>> writeCorpus(File file, int sentences, long seed)
+            throws IOException {
+        Random random = new Random(seed);
+        List<List<String[]>> corpus = new ArrayList<>();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            for(int s = 0; s < sentences; s++) {
+                List<String[]> sentence = new ArrayList<>();
+                int length = 6 + random.nextInt(20);
+                for(int w = 0; w < length; w++) {
+                    String[] row;
+                    if(w > 0 && random.nextInt(6) == 0) {
+                        String sign = SIGNS[random.nextInt(SIGNS.length)];
+                        String previous = sentence.get(w - 1)[1];
+                        String type = previous.startsWith("VB") ? "CMV1" :
+                                sign.startsWith(",") ? "CLN" : 
+                                previous.equals("NN") ? "SSEV" : "SSCCV";
+                        row = new String[]{sign, sign.startsWith(",") ? "," : "CC", "M:Y", type};
+                    } else {
+                        int word = random.nextInt(WORDS.length);
+                        row = new String[]{WORDS[word], CATEGORIES[word], "M:N", "NA"};
+                    }
+                    sentence.add(row);
+                    out.write(String.join(" ", row));
+                    out.write('\n');
+                }
+                out.write('\n');
+                corpus.add(sentence);
+            }
+        }
+        return corpus;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Document;
+import gate.Factory;
+import gate.LanguageAnalyser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The prediction step of the script (addPredictions) on the feature rows of
+ * the checked-in documents, with each way of applying the CRF++ model: in
+ * the JVM, with a crf_test co-process, and with a crf_test run on a file
+ * per document as the script does in "file" mode.
+ *
+ * @author dinel
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CrfPredictionBenchmark {
+    
+    @Param({"small", "medium", "book"})
+    public String document;
+    
+    @Param({"java", "coprocess", "file"})
+    public String decoder;
+    
+    private List<List<String[]>> sentences;
+    private CRFLabeller labeller;
+    private File crfTest;
+    private File model;
+    private File scratch;
+    
+    @Setup
+    public void setup() throws Exception {
+        Properties props = BenchmarkDocuments.initGate();
+        crfTest = new File(PropertiesLoader.addFinalSlash(props.getProperty("CRFPath")) 
+                + "crf_test");
+        model = new File(PropertiesLoader.addFinalSlash(props.getProperty("ResourcesPrefix"))
+                + SignTagger.MODEL_FILE);
+        scratch = Files.createTempDirectory("signtagger-bench").toFile();
+        sentences = extractRows(props, document, scratch);
+        
+        if("java".equals(decoder)) {
+            labeller = CRFModel.load(model);
+        } else if("coprocess".equals(decoder)) {
+            labeller = new CRFCoProcess(crfTest, model, 
+                    props.getProperty("CRFWrapper", "stdbuf -oL"));
+        }
+    }
+    
+    /**
+     * Runs the pipeline up to the script and records the rows the script
+     * hands to the labeller, one list per sentence
+     */
+    static List<List<String[]>> extractRows(Properties props, String document, File scratch)
+            throws Exception {
+        Document doc = BenchmarkDocuments.document(document);
+        LanguageAnalyser[] annie = {
+            BenchmarkDocuments.createPR("gate.creole.tokeniser.DefaultTokeniser"),
+            BenchmarkDocuments.createPR("gate.creole.splitter.SentenceSplitter"),
+            BenchmarkDocuments.createPR("gate.creole.POSTagger")
+        };
+        BenchmarkDocuments.annotate(doc, annie);
+        
+        List<List<String[]>> recorded = new ArrayList<>();
+        CRFLabeller recorder = (rows) -> {
+            List<String[]> copy = new ArrayList<>(rows.size());
+            for(String[] row : rows) copy.add(row.clone());
+            recorded.add(copy);
+            String[] labels = new String[rows.size()];
+            Arrays.fill(labels, "NA");
+            return labels;
+        };
+        LanguageAnalyser script = BenchmarkDocuments.createSignProcessor(props, recorder, true,
+                new File(scratch, "out-crf-tmp.txt"));
+        BenchmarkDocuments.annotate(doc, script);
+        
+        for(LanguageAnalyser pr : annie) Factory.deleteResource(pr);
+        Factory.deleteResource(script);
+        Factory.deleteResource(doc);
+        return recorded;
+    }
+    
+    @TearDown
+    public void tearDown() {
+        if(labeller instanceof CRFCoProcess) ((CRFCoProcess) labeller).close();
+        for(File f : scratch.listFiles()) f.delete();
+        scratch.delete();
+    }
+    
+    @Benchmark
+    public void predict(Blackhole blackhole) throws Exception {
+        if(labeller == null) {
+            predictWithFile(blackhole);
+            return;
+        }
+        for(List<String[]> sentence : sentences) {
+            blackhole.consume(labeller.label(sentence));
+        }
+    }
+    
+    /**
+     * What addPredictions does in "file" mode: the features are written to
+     * a file, crf_test is made executable and run on it
+     */
+    private void predictWithFile(Blackhole blackhole) throws IOException, InterruptedException {
+        File features = new File(scratch, "out-crf-tmp.txt");
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(features), StandardCharsets.UTF_8))) {
+            for(List<String[]> sentence : sentences) {
+                for(String[] row : sentence) {
+                    out.write(String.join(" ", row));
+                    out.write('\n');
+                }
+                out.write('\n');
+            }
+        }
+        
+        new ProcessBuilder("chmod", "+x", crfTest.getPath()).start().waitFor();
+        Process process = new ProcessBuilder(crfTest.getPath(), "-m", model.getPath(),
+                features.getPath()).redirectErrorStream(true).start();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while((line = in.readLine()) != null) {
+                blackhole.consume(line);
+            }
+        }
+        process.waitFor();
+    }
+}
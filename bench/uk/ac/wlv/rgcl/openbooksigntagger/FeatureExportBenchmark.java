@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Document;
+import gate.Factory;
+import gate.LanguageAnalyser;
+import gate.util.GateException;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The sign processor with predictions turned off: mnode creation, sign
+ * detection and writeFeaturestoFile, on documents already processed by the
+ * ANNIE stages. Both the Groovy script and the compiled SignProcessor are
+ * measured.
+ *
+ * @author dinel
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FeatureExportBenchmark {
+    
+    @Param({"small", "medium", "book"})
+    public String document;
+    
+    @Param({"groovy", "java"})
+    public String processor;
+    
+    private Document doc;
+    private LanguageAnalyser script;
+    private File scratch;
+    
+    @Setup
+    public void setup() throws Exception {
+        Properties props = BenchmarkDocuments.initGate();
+        doc = BenchmarkDocuments.document(document);
+        LanguageAnalyser[] annie = {
+            BenchmarkDocuments.createPR("gate.creole.tokeniser.DefaultTokeniser"),
+            BenchmarkDocuments.createPR("gate.creole.splitter.SentenceSplitter"),
+            BenchmarkDocuments.createPR("gate.creole.POSTagger")
+        };
+        BenchmarkDocuments.annotate(doc, annie);
+        for(LanguageAnalyser pr : annie) Factory.deleteResource(pr);
+        
+        scratch = Files.createTempDirectory("signtagger-bench").toFile();
+        script = BenchmarkDocuments.createSignProcessor(processor, props, null, false, 
+                new File(scratch, "out-crf-tmp.txt"));
+        script.setDocument(doc);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        Factory.deleteResource(script);
+        Factory.deleteResource(doc);
+        for(File f : scratch.listFiles()) f.delete();
+        scratch.delete();
+    }
+    
+    @Benchmark
+    public void writeFeatures() throws GateException {
+        script.execute();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks that a pool of workers tags like a single worker. Generated
+ * documents are tagged one after the other with PoolSize=1, then all at
+ * once from as many threads as workers with PoolSize=N, and the sync
+ * annotations and the printed XML of each document must be identical.
+ * A document which cannot be tagged in either run fails the check.
+ *
+ * java -cp <classpath> uk.ac.wlv.rgcl.openbooksigntagger.PoolConcurrencyCheck
+ *     [documents] [workers]
+ *
+ * The defaults are 300 documents and the number of cores (at least 2).
+ *
+ * @author dinel
+ */
+
+public class PoolConcurrencyCheck {
+    
+    public static void main(String[] args) throws Exception {
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) :
+                Math.max(2, Runtime.getRuntime().availableProcessors());
+        
+        Properties props = BenchmarkDocuments.initGate();
+        Random random = new Random(42);
+        List<String> texts = new ArrayList<>();
+        for(int i = 0; i < documents; i++) {
+            Document doc = BenchmarkDocuments.synthetic(1 + random.nextInt(12), random.nextLong());
+            texts.add(doc.getContent().toString());
+            Factory.deleteResource(doc);
+        }
+        
+        SignTagger serial = new SignTagger(BenchmarkDocuments.singleWorker(props));
+        List<String> expected = new ArrayList<>();
+        for(String text : texts) {
+            expected.add(tag(serial, text));
+        }
+        serial.destroy();
+        
+        Properties pooled = new Properties();
+        pooled.putAll(props);
+        pooled.setProperty("PoolSize", String.valueOf(workers));
+        SignTagger parallel = new SignTagger(pooled);
+        ExecutorService callers = Executors.newFixedThreadPool(workers);
+        List<Future<String>> actual = new ArrayList<>();
+        for(String text : texts) {
+            actual.add(callers.submit(() -> tag(parallel, text)));
+        }
+        
+        int different = 0;
+        int failures = 0;
+        for(int i = 0; i < documents; i++) {
+            String result = actual.get(i).get();
+            if(result == null || expected.get(i) == null) {
+                failures++;
+            } else if(!expected.get(i).equals(result)) {
+                if(different++ < 5) {
+                    System.out.println("document " + i + " differs\n  serial: "
+                            + expected.get(i) + "\n  pool:   " + result);
+                }
+            }
+        }
+        callers.shutdown();
+        parallel.destroy();
+        
+        System.out.printf("%d documents, %d workers: %d different, %d failures%n",
+                documents, workers, different, failures);
+        System.exit(different == 0 && failures == 0 ? 0 : 1);
+    }
+    
+    /**
+     * @return the signs and the printed XML of the tagged text, or null if
+     * it could not be tagged
+     */
+    private static String tag(SignTagger processor, String text) throws Exception {
+        Document doc = Factory.newDocument(text);
+        try {
+            if(processor.process(doc) == null) return null;
+            StringBuilder result = new StringBuilder();
+            AnnotationSet syntax = doc.getAnnotations("syntax");
+            List<String> signs = new ArrayList<>();
+            for(Annotation sign : syntax.get("sync").inDocumentOrder()) {
+                signs.add(sign.getStartNode().getOffset() + "-" + sign.getEndNode().getOffset()
+                        + " " + sign.getFeatures().get("type"));
+            }
+            // signs starting at the same offset are in no particular order
+            signs.sort(null);
+            result.append(signs).append('\n');
+            
+            StringWriter output = new StringWriter();
+            DocumentWriter writer = OutputFormat.XML.createWriter(output);
+            SimpleSyntaxApp.printDocument(doc, writer);
+            writer.flush();
+            return result.append(output).toString();
+        } finally {
+            processor.release(doc);
+        }
+    }
+}
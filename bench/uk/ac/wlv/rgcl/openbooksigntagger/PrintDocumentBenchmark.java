@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.creole.ANNIEConstants;
+import gate.util.InvalidOffsetException;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the sweep used by SimpleSyntaxApp.printDocument with the 
+ * original renderer, which queried the annotation sets for every sentence
+ * and every token. The setup fails if the two outputs differ.
+ *
+ * @author dinel
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PrintDocumentBenchmark {
+    
+    @Param({"1000", "20000"})
+    public int sentences;
+    
+    @Param({"html", "txt", "xml", "jsonl", "conll"})
+    public String outputFormat;
+    
+    private Document doc;
+    private DocumentWriter sink;
+    
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkDocuments.initGate();
+        doc = BenchmarkDocuments.synthetic(sentences, 42);
+        OutputFormat format = OutputFormat.fromName(outputFormat);
+        sink = format.createWriter(BenchmarkDocuments.nullWriter());
+        
+        StringWriter sweep = new StringWriter();
+        SimpleSyntaxApp.printDocument(doc, format.createWriter(sweep));
+        StringWriter query = new StringWriter();
+        printDocumentByQuery(doc, format.createWriter(query));
+        if(!sweep.toString().equals(query.toString())) {
+            throw new IllegalStateException("The sweep renderer output differs");
+        }
+    }
+    
+    @TearDown
+    public void tearDown() {
+        Factory.deleteResource(doc);
+    }
+    
+    @Benchmark
+    public void sweep() throws InvalidOffsetException, IOException {
+        SimpleSyntaxApp.printDocument(doc, sink);
+    }
+    
+    @Benchmark
+    public void queryPerToken() throws InvalidOffsetException, IOException {
+        printDocumentByQuery(doc, sink);
+    }
+    
+    /**
+     * The renderer used before the sweep, kept as the reference output
+     */
+    static void printDocumentByQuery(Document doc, DocumentWriter writer) 
+            throws InvalidOffsetException, IOException {
+        HashMap<String, Integer> statistics = new HashMap<>();
+        
+        writer.beginDocument();
+        
+        AnnotationSet annSet = doc.getAnnotations();
+        AnnotationSet namedAnnSet = doc.getNamedAnnotationSets().get("syntax");
+        AnnotationSet sentences = annSet.get(
+                ANNIEConstants.SENTENCE_ANNOTATION_TYPE);
+        
+        for(Annotation sentence : sentences.inDocumentOrder()) {
+            AnnotationSet tokens = annSet.get(
+                    sentence.getStartNode().getOffset(), 
+                    sentence.getEndNode().getOffset());
+            
+            writer.beginSentence();
+            
+            for(Annotation token : tokens.inDocumentOrder()) {
+                if(!token.getType().equals(ANNIEConstants.TOKEN_ANNOTATION_TYPE) &&
+                   !token.getType().equals(ANNIEConstants.SPACE_TOKEN_ANNOTATION_TYPE)) {
+                    continue;
+                }
+                AnnotationSet signs = namedAnnSet.get(
+                        "sync",
+                        token.getStartNode().getOffset(), 
+                        token.getEndNode().getOffset());
+                
+                for(Annotation sign : signs.inDocumentOrder()) {
+                    if(sign.getStartNode().getOffset().equals(token.getStartNode().getOffset())) {
+                        String type = sign.getFeatures().get("type").toString();
+                        writer.beginSign(type);
+                        statistics.merge(type, 1, Integer::sum);
+                    }
+                }
+                
+                writer.token(doc.getContent().getContent(
+                        token.getStartNode().getOffset(), 
+                        token.getEndNode().getOffset()).toString(),
+                        token.getFeatures().containsKey("category") ? 
+                                token.getFeatures().get("category").toString() : "");
+                
+                for(Annotation sign : signs.inDocumentOrder()) {
+                    if(sign.getEndNode().getOffset().equals(token.getEndNode().getOffset())) {
+                        writer.endSign(sign.getFeatures().get("type").toString());
+                    }
+                }
+            }
+            writer.endSentence();
+        }
+        writer.endDocument(statistics);
+    }
+}
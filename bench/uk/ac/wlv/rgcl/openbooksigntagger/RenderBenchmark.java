@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Document;
+import gate.Factory;
+import gate.util.InvalidOffsetException;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SimpleSyntaxApp.printDocument on the checked-in documents, tagged once
+ * during the setup, for every output format
+ *
+ * @author dinel
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RenderBenchmark {
+    
+    @Param({"small", "medium", "book"})
+    public String document;
+    
+    @Param({"html", "txt", "xml", "jsonl", "conll"})
+    public String outputFormat;
+    
+    private Document doc;
+    private DocumentWriter sink;
+    
+    @Setup
+    public void setup() throws Exception {
+        SignTagger tagger = new SignTagger(BenchmarkDocuments.singleWorker(
+                BenchmarkDocuments.initGate()));
+        doc = BenchmarkDocuments.document(document);
+        if(tagger.process(doc) == null) {
+            throw new IllegalStateException("The document could not be tagged");
+        }
+        tagger.destroy();
+        sink = OutputFormat.fromName(outputFormat).createWriter(
+                BenchmarkDocuments.nullWriter());
+    }
+    
+    @TearDown
+    public void tearDown() {
+        Factory.deleteResource(doc);
+    }
+    
+    @Benchmark
+    public void printDocument() throws InvalidOffsetException, IOException {
+        SimpleSyntaxApp.printDocument(doc, sink);
+    }
+}
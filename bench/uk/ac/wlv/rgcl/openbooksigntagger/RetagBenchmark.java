@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.AnnotationSet;
+import gate.Document;
+import gate.corpora.DocumentContentImpl;
+
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * An editor inserting a word in the middle of a tagged document and
+ * removing it again, with the document re-tagged after each edit either
+ * incrementally (SignTagger.retag) or as a whole, as the editor
+ * integration did before. The incremental time should not grow with the
+ * size of the document.
+ *
+ * @author dinel
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RetagBenchmark {
+    
+    private static final String WORD = "very ";
+    
+    @Param({"small", "medium", "book"})
+    public String document;
+    
+    @Param({"retag", "full"})
+    public String mode;
+    
+    private SignTagger processor;
+    private Document doc;
+    private long offset;
+    
+    @Setup
+    public void setup() throws Exception {
+        Properties props = BenchmarkDocuments.singleWorker(BenchmarkDocuments.initGate());
+        processor = new SignTagger(props);
+        doc = BenchmarkDocuments.document(document);
+        processor.tag(doc);
+        
+        // the start of a word in the middle of the document
+        String text = doc.getContent().toString();
+        int space = text.indexOf(' ', text.length() / 2);
+        offset = space < 0 ? 0 : space + 1;
+    }
+    
+    @TearDown
+    public void tearDown() {
+        processor.release(doc);
+        processor.destroy();
+    }
+    
+    @Benchmark
+    public Document editAndUndo() throws Exception {
+        edit(offset, offset, WORD);
+        return edit(offset, offset + WORD.length(), "");
+    }
+    
+    private Document edit(long start, long end, String replacement) throws Exception {
+        if("retag".equals(mode)) return processor.retag(doc, start, end, replacement);
+        
+        doc.edit(start, end, new DocumentContentImpl(replacement));
+        clear(doc.getAnnotations());
+        clear(doc.getAnnotations("syntax"));
+        return processor.tag(doc);
+    }
+    
+    private static void clear(AnnotationSet annSet) {
+        annSet.removeAll(new ArrayList<>(annSet));
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.creole.ANNIEConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that SignTagger.retag gives the same annotations as tagging the
+ * edited text from scratch. Generated documents are tagged, then edited at
+ * random (words inserted, deleted or replaced, sentences split or joined)
+ * and re-tagged after each edit; the sentences, tokens and sync signs must
+ * be those of a fresh document with the same text.
+ *
+ * java -cp <classpath> uk.ac.wlv.rgcl.openbooksigntagger.RetagCheck
+ *     [documents] [edits]
+ *
+ * The defaults are 50 documents and 20 edits per document.
+ *
+ * @author dinel
+ */
+
+public class RetagCheck {
+    
+    private static final String[] INSERTED = {"very ", "and ", "but not ", "the old ",
+        "if ", ", which ", ". Then "};
+    
+    public static void main(String[] args) throws Exception {
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        
+        SignTagger processor = new SignTagger(
+                BenchmarkDocuments.singleWorker(BenchmarkDocuments.initGate()));
+        Random random = new Random(42);
+        int different = 0;
+        for(int d = 0; d < documents; d++) {
+            Document generated = BenchmarkDocuments.synthetic(2 + random.nextInt(12),
+                    random.nextLong());
+            Document doc = Factory.newDocument(generated.getContent().toString());
+            Factory.deleteResource(generated);
+            try {
+                processor.tag(doc);
+                for(int e = 0; e < edits; e++) {
+                    String edit = edit(processor, doc, random);
+                    String actual = annotations(doc);
+                    String expected = tagFresh(processor, doc.getContent().toString());
+                    if(!expected.equals(actual)) {
+                        if(different++ < 5) {
+                            System.out.println("document " + d + ", edit " + e + " (" + edit
+                                    + ") differs\n  retag: " + actual + "\n  tag:   " + expected);
+                        }
+                        break;
+                    }
+                }
+            } finally {
+                processor.release(doc);
+            }
+        }
+        processor.destroy();
+        
+        System.out.printf("%d documents, %d edits each: %d different%n",
+                documents, edits, different);
+        System.exit(different == 0 ? 0 : 1);
+    }
+    
+    /**
+     * Applies a random edit at a word boundary and re-tags the document.
+     * @return the edit, for the report
+     */
+    private static String edit(SignTagger processor, Document doc, Random random)
+            throws Exception {
+        String text = doc.getContent().toString();
+        int start = wordStart(text, random.nextInt(text.length() + 1));
+        int end = start;
+        String replacement = "";
+        switch(random.nextInt(4)) {
+            case 0: // insertion
+                replacement = INSERTED[random.nextInt(INSERTED.length)];
+                break;
+            case 1: // deletion of a word and the space after it
+                end = wordEnd(text, start);
+                break;
+            case 2: // replacement of a word
+                end = wordEnd(text, start);
+                replacement = INSERTED[random.nextInt(INSERTED.length)];
+                break;
+            default: // joins two sentences, or splits one
+                int stop = text.indexOf(". ", start);
+                if(stop >= 0) {
+                    start = stop;
+                    end = stop + 2;
+                    replacement = " ";
+                } else {
+                    replacement = ". ";
+                }
+        }
+        processor.retag(doc, start, end, replacement);
+        return start + "-" + end + " '" + replacement + "'";
+    }
+    
+    private static int wordStart(String text, int offset) {
+        while(offset > 0 && text.charAt(offset - 1) != ' ') offset--;
+        return offset;
+    }
+    
+    private static int wordEnd(String text, int offset) {
+        while(offset < text.length() && text.charAt(offset) != ' ') offset++;
+        return Math.min(offset + 1, text.length());
+    }
+    
+    private static String tagFresh(SignTagger processor, String text) throws Exception {
+        Document doc = Factory.newDocument(text);
+        try {
+            processor.tag(doc);
+            return annotations(doc);
+        } finally {
+            processor.release(doc);
+        }
+    }
+    
+    /**
+     * @return the sentences and tokens of the default set and the sync signs
+     * with their type, sorted by offset
+     */
+    private static String annotations(Document doc) {
+        List<String> result = new ArrayList<>();
+        AnnotationSet annSet = doc.getAnnotations();
+        add(result, annSet.get(ANNIEConstants.SENTENCE_ANNOTATION_TYPE), null);
+        add(result, annSet.get(ANNIEConstants.TOKEN_ANNOTATION_TYPE), "category");
+        add(result, doc.getAnnotations("syntax").get("sync"), "type");
+        // annotations at the same offsets are in no particular order
+        result.sort(null);
+        return result.toString();
+    }
+    
+    private static void add(List<String> result, AnnotationSet annotations, String feature) {
+        for(Annotation a : annotations) {
+            result.add(a.getStartNode().getOffset() + "-" + a.getEndNode().getOffset() + " "
+                    + a.getType() + (feature == null ? "" : " " + a.getFeatures().get(feature)));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Document;
+import gate.Factory;
+import gate.LanguageAnalyser;
+import gate.util.GateException;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The sign processor in predict mode with the model applied in the JVM, on
+ * documents already processed by the ANNIE stages. It is meant to be run
+ * with the GC profiler, which reports the bytes allocated per document
+ * (gc.alloc.rate.norm): the Groovy script creates an mnode annotation and a
+ * feature map per token, SignProcessor keeps the features in
+ * FeatureVectors. The main method runs it with the profiler:
+ *
+ * java -cp <classpath> uk.ac.wlv.rgcl.openbooksigntagger.SignProcessorAllocationBenchmark
+ *
+ * @author dinel
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SignProcessorAllocationBenchmark {
+    
+    @Param({"small", "medium", "book"})
+    public String document;
+    
+    @Param({"groovy", "java"})
+    public String processor;
+    
+    private Document doc;
+    private LanguageAnalyser signProcessor;
+    private File scratch;
+    
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(SignProcessorAllocationBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+    
+    @Setup
+    public void setup() throws Exception {
+        Properties props = BenchmarkDocuments.initGate();
+        doc = BenchmarkDocuments.document(document);
+        LanguageAnalyser[] annie = {
+            BenchmarkDocuments.createPR("gate.creole.tokeniser.DefaultTokeniser"),
+            BenchmarkDocuments.createPR("gate.creole.splitter.SentenceSplitter"),
+            BenchmarkDocuments.createPR("gate.creole.POSTagger")
+        };
+        BenchmarkDocuments.annotate(doc, annie);
+        for(LanguageAnalyser pr : annie) Factory.deleteResource(pr);
+        
+        CRFModel model = CRFModel.load(new File(PropertiesLoader.addFinalSlash(
+                props.getProperty("ResourcesPrefix")) + SignTagger.MODEL_FILE));
+        scratch = Files.createTempDirectory("signtagger-bench").toFile();
+        signProcessor = BenchmarkDocuments.createSignProcessor(processor, props, model, true,
+                new File(scratch, "out-crf-tmp.txt"));
+        signProcessor.setDocument(doc);
+    }
+    
+    /**
+     * Removes the signs, so each invocation tags the same document
+     */
+    @TearDown(Level.Invocation)
+    public void removeSigns() {
+        doc.removeAnnotationSet("syntax");
+    }
+    
+    @TearDown
+    public void tearDown() {
+        Factory.deleteResource(signProcessor);
+        Factory.deleteResource(doc);
+        for(File f : scratch.listFiles()) f.delete();
+        scratch.delete();
+    }
+    
+    @Benchmark
+    public void tag() throws GateException {
+        signProcessor.execute();
+    }
+}
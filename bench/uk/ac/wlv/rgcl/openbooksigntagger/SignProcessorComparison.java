@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Annotation;
+import gate.Document;
+import gate.Factory;
+import gate.LanguageAnalyser;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Checks that the Groovy script and the compiled SignProcessor add the same
+ * sync annotations. Each checked-in document (or each file given as an
+ * argument) is tagged by both, with the model decoded in the JVM, and the
+ * signs are compared by offsets and features.
+ *
+ * @author dinel
+ */
+
+public class SignProcessorComparison {
+    
+    public static void main(String[] args) throws Exception {
+        Properties props = BenchmarkDocuments.initGate();
+        CRFModel model = CRFModel.load(new File(
+                PropertiesLoader.addFinalSlash(props.getProperty("ResourcesPrefix"))
+                        + SignTagger.MODEL_FILE));
+        File scratch = Files.createTempDirectory("signtagger-compare").toFile();
+        File outFile = new File(scratch, "out-crf-tmp.txt");
+        
+        LanguageAnalyser[] annie = {
+            BenchmarkDocuments.createPR("gate.creole.tokeniser.DefaultTokeniser"),
+            BenchmarkDocuments.createPR("gate.creole.splitter.SentenceSplitter"),
+            BenchmarkDocuments.createPR("gate.creole.POSTagger")
+        };
+        LanguageAnalyser script = BenchmarkDocuments.createSignProcessor("groovy", props,
+                model, true, outFile);
+        LanguageAnalyser compiled = BenchmarkDocuments.createSignProcessor("java", props,
+                model, true, outFile);
+        
+        int different = 0;
+        for(String input : args.length > 0 ? args : BenchmarkDocuments.SIZES) {
+            Document doc = new File(input).isFile() ? 
+                    Factory.newDocument(new File(input).toURI().toURL()) :
+                    BenchmarkDocuments.document(input);
+            BenchmarkDocuments.annotate(doc, annie);
+            
+            BenchmarkDocuments.annotate(doc, script);
+            List<String> expected = signs(doc);
+            doc.removeAnnotationSet("syntax");
+            BenchmarkDocuments.annotate(doc, compiled);
+            List<String> actual = signs(doc);
+            
+            if(expected.equals(actual)) {
+                System.out.println(input + ": " + actual.size() + " identical signs");
+            } else {
+                different++;
+                System.out.println(input + ": the signs differ");
+                for(int i = 0; i < Math.max(expected.size(), actual.size()); i++) {
+                    String e = i < expected.size() ? expected.get(i) : "-";
+                    String a = i < actual.size() ? actual.get(i) : "-";
+                    if(!e.equals(a)) System.out.println("  groovy " + e + "\n  java   " + a);
+                }
+            }
+            Factory.deleteResource(doc);
+        }
+        
+        for(LanguageAnalyser pr : annie) Factory.deleteResource(pr);
+        Factory.deleteResource(script);
+        Factory.deleteResource(compiled);
+        scratch.delete();
+        System.exit(different == 0 ? 0 : 1);
+    }
+    
+    /**
+     * @return the sync annotations of the syntax set, one line each
+     */
+    private static List<String> signs(Document doc) {
+        List<String> signs = new ArrayList<>();
+        for(Annotation sign : doc.getAnnotations("syntax").get("sync").inDocumentOrder()) {
+            signs.add(sign.getStartNode().getOffset() + "-" + sign.getEndNode().getOffset()
+                    + " " + sign.getFeatures().get("type") + " " + sign.getFeatures().get("pos")
+                    + " " + sign.getFeatures().get("complexity")
+                    + " " + sign.getFeatures().get("confidence"));
+        }
+        // signs starting at the same offset are in no particular order
+        signs.sort(null);
+        return signs;
+    }
+}
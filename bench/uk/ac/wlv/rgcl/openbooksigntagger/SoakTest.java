@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Document;
+import gate.Factory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tags many short documents with one SignTagger, releasing each of them,
+ * and checks that the heap used after a full GC stays flat. The baseline is
+ * taken after a warm-up, and the run fails if the heap grows by more than
+ * the allowed margin by the end.
+ *
+ * Usage: SoakTest [documents] [allowed growth in MB]. The defaults are
+ * 20000 documents and 32 MB. Run it with a fixed heap, e.g. -Xmx512m.
+ *
+ * @author dinel
+ */
+
+public class SoakTest {
+    private static final String[] SENTENCES = {
+        "The children read the story, and the teacher wrote on the board.",
+        "When the river rose, the old house which stood by the garden was flooded.",
+        "She said that the book was long but the pages were short.",
+        "The city, which was new, grew quickly while the village did not."
+    };
+    
+    public static void main(String[] args) throws Exception {
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        long allowed = (args.length > 1 ? Long.parseLong(args[1]) : 32) << 20;
+        
+        Properties props = BenchmarkDocuments.initGate();
+        SignTagger processor = new SignTagger(props);
+        ExecutorService callers = Executors.newFixedThreadPool(processor.getPoolSize());
+        Random random = new Random(42);
+        
+        int warmUp = Math.min(1000, documents / 10);
+        long baseline = 0;
+        int failures = 0;
+        int step = Math.max(1, documents / 20);
+        for(int done = 0; done < documents; ) {
+            int batch = Math.min(step, documents - done);
+            Future<?>[] futures = new Future<?>[batch];
+            for(int i = 0; i < batch; i++) {
+                String text = text(random);
+                futures[i] = callers.submit(() -> {
+                    Document doc = Factory.newDocument(text);
+                    try {
+                        return processor.process(doc) != null;
+                    } finally {
+                        processor.release(doc);
+                    }
+                });
+            }
+            for(Future<?> future : futures) {
+                if(!Boolean.TRUE.equals(future.get())) failures++;
+            }
+            done += batch;
+            
+            long used = usedHeap();
+            if(baseline == 0 && done >= warmUp) baseline = used;
+            System.err.printf("%d documents, heap %.1f MB%n", done, used / 1048576.0);
+        }
+        
+        long growth = usedHeap() - baseline;
+        callers.shutdown();
+        callers.awaitTermination(1, TimeUnit.MINUTES);
+        processor.destroy();
+        
+        System.err.printf("Heap growth after the warm-up: %.1f MB (allowed %.1f MB), "
+                + "%d failures%n", growth / 1048576.0, allowed / 1048576.0, failures);
+        System.err.println(processor.getMetrics().snapshot());
+        System.exit(growth <= allowed && failures == 0 ? 0 : 1);
+    }
+    
+    private static String text(Random random) {
+        StringBuilder text = new StringBuilder();
+        int sentences = 1 + random.nextInt(6);
+        for(int i = 0; i < sentences; i++) {
+            text.append(SENTENCES[random.nextInt(SENTENCES.length)]).append(' ');
+        }
+        return text.toString();
+    }
+    
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to create a SignTagger and its workers for several pool sizes, with
+ * the workers duplicated in parallel or one after the other.
+ *
+ * @author dinel
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+public class StartupBenchmark {
+    
+    @Param({"1", "4", "8"})
+    public int poolSize;
+    
+    @Param({"1", "8"})
+    public int startupThreads;
+    
+    private Properties props;
+    
+    @Setup
+    public void setup() throws Exception {
+        props = BenchmarkDocuments.singleWorker(BenchmarkDocuments.initGate());
+        props.setProperty("PoolSize", String.valueOf(poolSize));
+        props.setProperty("StartupThreads", String.valueOf(startupThreads));
+    }
+    
+    @Benchmark
+    public SignTagger start() throws Exception {
+        SignTagger processor = new SignTagger(props);
+        processor.destroy();
+        return processor;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks how SubprocessManager handles a crf_test which misbehaves, with
+ * the fake scripts of bench/resources/fake-crf:
+ * <ul>
+ * <li>hang.sh never answers: TIMEOUT, soon after the deadline</li>
+ * <li>crash.sh exits with 3: FAILED, with the exit code and the end of
+ * stderr</li>
+ * <li>flood.sh writes about 1.5MB on stderr before its output: it must
+ * finish, and its output be read</li>
+ * </ul>
+ * and that no process slot is left taken afterwards.
+ *
+ * java -cp <classpath> uk.ac.wlv.rgcl.openbooksigntagger.SubprocessCheck
+ *     [scripts]
+ *
+ * The scripts default to bench/resources/fake-crf.
+ *
+ * @author dinel
+ */
+
+public class SubprocessCheck {
+    
+    private static final long DEADLINE = 2000;
+    
+    private static int failures = 0;
+    
+    public static void main(String[] args) throws Exception {
+        File scripts = new File(args.length > 0 ? args[0] : "bench/resources/fake-crf");
+        SubprocessManager subprocesses = new SubprocessManager(2, DEADLINE);
+        
+        long start = System.nanoTime();
+        SubprocessException hang = run(subprocesses, new File(scripts, "hang.sh"), null);
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        check("hang.sh times out", hang != null
+                && hang.getKind() == SubprocessException.Kind.TIMEOUT, hang);
+        check("hang.sh is killed within twice the deadline (" + elapsed + " ms)",
+                elapsed < 2 * DEADLINE, null);
+        
+        SubprocessException crash = run(subprocesses, new File(scripts, "crash.sh"), null);
+        check("crash.sh fails with exit code 3", crash != null
+                && crash.getKind() == SubprocessException.Kind.FAILED
+                && crash.getExitCode() == 3, crash);
+        check("crash.sh reports the end of its stderr", crash != null
+                && crash.getStderr().endsWith("model file is broken")
+                && crash.getMessage().contains("model file is broken"), crash);
+        
+        List<String> output = new ArrayList<>();
+        start = System.nanoTime();
+        SubprocessException flood = run(subprocesses, new File(scripts, "flood.sh"), output);
+        elapsed = (System.nanoTime() - start) / 1000000;
+        check("flood.sh finishes (" + elapsed + " ms)", flood == null, flood);
+        check("flood.sh output is read", output.size() == 1
+                && output.get(0).startsWith("word\t"), null);
+        
+        check("no process is left running", subprocesses.getActiveProcesses() == 0, null);
+        subprocesses.close();
+        System.exit(failures == 0 ? 0 : 1);
+    }
+    
+    /**
+     * @param output where the lines of the output are kept, or null
+     * @return the failure, or null if the script ran to completion
+     */
+    private static SubprocessException run(SubprocessManager subprocesses, File script,
+            List<String> output) throws Exception {
+        try {
+            subprocesses.checkBinary(script);
+            subprocesses.run(Collections.singletonList(script.getPath()), (in) -> {
+                String line;
+                while((line = in.readLine()) != null) {
+                    if(output != null) output.add(line);
+                }
+            });
+            return null;
+        } catch (SubprocessException e) {
+            return e;
+        }
+    }
+    
+    private static void check(String name, boolean passed, Exception failure) {
+        System.out.println((passed ? "ok      " : "FAILED  ") + name);
+        if(!passed) {
+            failures++;
+            if(failure != null) System.out.println("        " + failure.getMessage());
+        }
+    }
+}
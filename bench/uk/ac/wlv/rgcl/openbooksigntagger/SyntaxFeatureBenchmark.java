@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The syntactic features (parentC/prevC/signC/nextC) of every mnode of one
+ * sentence with a synthetic parse tree, computed with SyntaxFeatureIndex and
+ * with the per-mnode queries processSyntax used to make. The score divided
+ * by the sentence length stays flat for the index.
+ *
+ * @author dinel
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SyntaxFeatureBenchmark {
+    private static final String[] PHRASES = {"NP", "VP", "PP", "SBAR", "ADJP"};
+    private static final String[] TAGS = {"DT", "NN", "VBD", "IN", "JJ", ",", "."};
+    
+    @Param({"10", "100", "1000", "5000"})
+    public int length;
+    
+    private Document doc;
+    private AnnotationSet syntaxNodes;
+    private List<Annotation> mnodes;
+    
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkDocuments.initGate();
+        doc = parsedDocument(length, length);
+        syntaxNodes = doc.getAnnotations().get("SyntaxTreeNode");
+        mnodes = doc.getAnnotations("syntax").get(SignProcessor.NODE_ANN).inDocumentOrder();
+    }
+    
+    /**
+     * @return a sentence of length words with a random parse tree in the
+     * default set and one mnode per word in the syntax set
+     */
+    static Document parsedDocument(int length, long seed) throws Exception {
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < length; i++) text.append("word ");
+        Document doc = Factory.newDocument(text.toString());
+        
+        Random random = new Random(seed);
+        AnnotationSet annSet = doc.getAnnotations();
+        AnnotationSet outputAS = doc.getAnnotations("syntax");
+        List<long[]> level = new ArrayList<>();
+        for(int i = 0; i < length; i++) {
+            long start = 5 * i;
+            FeatureMap features = Factory.newFeatureMap();
+            features.put("cat", TAGS[random.nextInt(TAGS.length)]);
+            int id = annSet.add(start, start + 4, "SyntaxTreeNode", features);
+            level.add(new long[]{id, start, start + 4});
+            
+            FeatureMap node = Factory.newFeatureMap();
+            node.put("word", "word");
+            outputAS.add(start, start + 4, SignProcessor.NODE_ANN, node);
+        }
+        // phrases of two to four children up to a single root
+        while(level.size() > 1) {
+            List<long[]> parents = new ArrayList<>();
+            for(int i = 0; i < level.size(); ) {
+                int end = Math.min(level.size(), i + 2 + random.nextInt(3));
+                List<Integer> consists = new ArrayList<>();
+                for(int j = i; j < end; j++) consists.add((int) level.get(j)[0]);
+                FeatureMap features = Factory.newFeatureMap();
+                features.put("cat", level.size() <= 4 ? "S" : PHRASES[random.nextInt(PHRASES.length)]);
+                features.put("consists", consists);
+                long start = level.get(i)[1];
+                long stop = level.get(end - 1)[2];
+                int id = annSet.add(start, stop, "SyntaxTreeNode", features);
+                parents.add(new long[]{id, start, stop});
+                i = end;
+            }
+            level = parents;
+        }
+        return doc;
+    }
+    
+    @TearDown
+    public void tearDown() {
+        Factory.deleteResource(doc);
+    }
+    
+    @Benchmark
+    public void indexed(Blackhole blackhole) {
+        SyntaxFeatureIndex index = new SyntaxFeatureIndex(syntaxNodes);
+        for(Annotation m : mnodes) {
+            blackhole.consume(index.features(m.getStartNode().getOffset(),
+                    m.getEndNode().getOffset()));
+        }
+    }
+    
+    @Benchmark
+    public void legacy(Blackhole blackhole) {
+        long sentenceEnd = doc.getContent().size();
+        for(Annotation m : mnodes) {
+            blackhole.consume(legacyFeatures(syntaxNodes.getContained(0L, sentenceEnd), m));
+        }
+    }
+    
+    /**
+     * processSyntax from exportCRFpr.v0.7.groovy before the index: the
+     * sentence is queried again and every lookup is a linear search
+     */
+    static Object[] legacyFeatures(AnnotationSet set2, Annotation n) {
+        long start = n.getStartNode().getOffset();
+        long end = n.getEndNode().getOffset();
+        Annotation signNode = null;
+        for(Annotation node : set2) {
+            if(node.getStartNode().getOffset() >= start && node.getEndNode().getOffset() <= end
+                    && (signNode == null || node.getId() > signNode.getId())) {
+                signNode = node;
+            }
+        }
+        if(signNode == null) return null;
+        
+        Annotation parentNode = null;
+        for(Annotation node : set2) {
+            List<?> consists = (List<?>) node.getFeatures().get("consists");
+            if(consists != null && consists.contains(signNode.getId())) {
+                parentNode = node;
+                break;
+            }
+        }
+        if(parentNode == null) return null;
+        
+        Object prev = "NA";
+        Object next = "NA";
+        for(Object id : (List<?>) parentNode.getFeatures().get("consists")) {
+            for(Annotation sibling : set2) {
+                if(!sibling.getId().equals(id)) continue;
+                Object cat = sibling.getFeatures().get("cat");
+                boolean kept = (cat != null && cat.toString().matches("[A-Za-z]+")) ||
+                        (sibling.getStartNode().getOffset() == start &&
+                         sibling.getEndNode().getOffset() == end);
+                if(kept && sibling.getId() < signNode.getId()) prev = cat;
+                if(kept && sibling.getId() > signNode.getId() && "NA".equals(next)) next = cat;
+                break;
+            }
+        }
+        return new Object[]{parentNode.getFeatures().get("cat"), prev,
+            signNode.getFeatures().get("cat"), next};
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that SyntaxFeatureIndex gives the same parentC, prevC, signC and
+ * nextC as processSyntax did in exportCRFpr.v0.7.groovy, ported as
+ * SyntaxFeatureBenchmark.legacyFeatures. Random parse trees are generated
+ * with mnodes over one and two words, and some consists lists shuffled so
+ * the children are not in id order, and every mnode is compared.
+ *
+ * java -cp <classpath> uk.ac.wlv.rgcl.openbooksigntagger.SyntaxFeatureCheck
+ *     [sentences]
+ *
+ * @author dinel
+ */
+
+public class SyntaxFeatureCheck {
+    
+    public static void main(String[] args) throws Exception {
+        int sentences = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        BenchmarkDocuments.initGate();
+        Random random = new Random(42);
+        
+        int mnodes = 0;
+        int different = 0;
+        for(int s = 0; s < sentences; s++) {
+            int length = 2 + random.nextInt(60);
+            Document doc = SyntaxFeatureBenchmark.parsedDocument(length, random.nextLong());
+            AnnotationSet syntaxNodes = doc.getAnnotations().get("SyntaxTreeNode");
+            AnnotationSet outputAS = doc.getAnnotations("syntax");
+            
+            // mnodes such as ", and" cover two tokens
+            for(int i = 0; i + 1 < length; i++) {
+                if(random.nextInt(5) == 0) {
+                    outputAS.add(5L * i, 5L * i + 9, SignProcessor.NODE_ANN, Factory.newFeatureMap());
+                }
+            }
+            for(Annotation node : syntaxNodes) {
+                List<?> consists = (List<?>) node.getFeatures().get("consists");
+                if(consists != null && random.nextInt(4) == 0) {
+                    List<Object> shuffled = new ArrayList<>(consists);
+                    Collections.shuffle(shuffled, random);
+                    node.getFeatures().put("consists", shuffled);
+                }
+            }
+            
+            SyntaxFeatureIndex index = new SyntaxFeatureIndex(syntaxNodes);
+            for(Annotation m : outputAS.get(SignProcessor.NODE_ANN).inDocumentOrder()) {
+                Object[] expected = SyntaxFeatureBenchmark.legacyFeatures(syntaxNodes, m);
+                Object[] actual = index.features(m.getStartNode().getOffset(),
+                        m.getEndNode().getOffset());
+                mnodes++;
+                if(!Arrays.equals(expected, actual) && different++ < 10) {
+                    System.out.println("sentence " + s + ", mnode " + m.getStartNode().getOffset()
+                            + "-" + m.getEndNode().getOffset() + "\n  script " 
+                            + Arrays.toString(expected) + "\n  index  " + Arrays.toString(actual));
+                }
+            }
+            Factory.deleteResource(doc);
+        }
+        
+        System.out.printf("%d sentences, %d mnodes: %d different%n", sentences, mnodes, different);
+        System.exit(different == 0 ? 0 : 1);
+    }
+}
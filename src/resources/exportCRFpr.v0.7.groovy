@@ -15,6 +15,9 @@
  */
 
 import gate.FeatureMap
+import uk.ac.wlv.rgcl.openbooksigntagger.CRFTrainer
+import uk.ac.wlv.rgcl.openbooksigntagger.SubprocessManager
+import uk.ac.wlv.rgcl.openbooksigntagger.SyntaxFeatureIndex
 
 
 /**
@@ -60,6 +63,10 @@ if ("true".equals(scriptParams.buildModel)) makeNewModel=true;
 clearAnnie=false
 if (scriptParams.clearAnnie!=null) outSentAnn=scriptParams.clearAnnie
 
+//java (CRFTrainer, text model) or crf_learn (CRF++ binary model)
+crfTrainer="java"
+if (scriptParams.crfTrainer!=null) crfTrainer=scriptParams.crfTrainer
+
 //FIXME: the following are two hidden parameters... possible collisions
 //files
 modelFile="crf-model-tmp-123" //pos-only model
@@ -74,6 +81,14 @@ if (scriptParams.outFileBuffer!=null) outFileBuffer=scriptParams.outFileBuffer
 filesplit=false
 if ("true".equals(scriptParams.filesplit)) filesplit=true; 
 
+//CRFLabeller (in-JVM model or crf_test co-process); if missing crf_test is run on the file
+crfLabeller=null
+if (scriptParams.crfLabeller!=null) crfLabeller=scriptParams.crfLabeller
+
+//limits and timeouts of crf_test and crf_learn, shared by the workers
+subprocesses=SubprocessManager.getDefault()
+if (scriptParams.subprocessManager!=null) subprocesses=scriptParams.subprocessManager
+
 //annotations
 def inputGoldAS="Original markups"
 def inputAnnieAS=""
@@ -120,30 +135,44 @@ if (filesplit==true)
      //dn=doc.getName()
      //filePath="${filePath}-${cn}-${dn}.txt"
      filePath="${filePath}-${corpus.name}-${doc.name}.txt"
-writeFeaturestoFile(filePath,inputAnnieAS,crfNodeAnn,filesplit)
+//the labeller does not need the file when only predicting
+if (makeTrain || crfLabeller==null)
+  writeFeaturestoFile(filePath,inputAnnieAS,crfNodeAnn,filesplit)
 
 //Step3bis: build new  model
 if(makeTrain && makeNewModel){
   //println "Training new CRF++ model"
   modelFile=outFileBuffer.replace(".txt",".model")
   //println modelFile
-  //fixme chmod +x
-  //crf_learn -f 3 template datafile mofeloutfile
-  cmdline="${crfprefix}crf_learn -f 3 ${prefix}resources/${templateFile} ${outFileBuffer} ${prefix}resources/${modelFile}"
-    
-  Process pr =Runtime.getRuntime().exec(cmdline);
-  BufferedReader inf = new BufferedReader(new InputStreamReader(pr.getInputStream()));
-  while((line=inf.readLine())!=null){
-    //println line
-  }  
-  inf.close()
-  exitVal = pr.waitFor();
-  //println "Building model<${modelFile}>... ${exitVal}"
+  if ("java".equals(crfTrainer)) {
+    trainer=new CRFTrainer()
+    trainer.setCutoff(3)
+    trainer.setCheckpoint(new File("${prefix}resources/${modelFile}.checkpoint"), 10)
+    trainer.train(new File("${prefix}resources/${templateFile}"), new File(outFileBuffer),
+                  new File("${prefix}resources/${modelFile}"))
+  } else {
+    //crf_learn -f 3 template datafile mofeloutfile
+    crfLearn=new File("${crfprefix}crf_learn")
+    subprocesses.checkBinary(crfLearn)
+    cmdline=[crfLearn.path, "-f", "3", "${prefix}resources/${templateFile}".toString(),
+             outFileBuffer.toString(), "${prefix}resources/${modelFile}".toString()]
+
+    //training can take hours, so no deadline
+    subprocesses.run(cmdline, 0, { inf ->
+      while((line=inf.readLine())!=null){
+        //println line
+      }
+    } as SubprocessManager.OutputReader)
+  }
+  //println "Building model<${modelFile}>..."
 }
 
 //Step4: make predictions     
 if (makePredictions){
-  addPredictions(inputAnnieAS,crfNodeAnn,signAnn)
+  if (crfLabeller!=null)
+    addPredictionsInProcess(inputAnnieAS,crfNodeAnn,signAnn)
+  else
+    addPredictions(inputAnnieAS,crfNodeAnn,signAnn)
 
 //STEP6: Add complex sentence annotations
 //addTaggedSentenceAnn(signAnn)
@@ -248,73 +277,20 @@ void detectPossibleSigns(crfNodeAnn){
 }
 
 
+//the SyntaxTreeNodes of each sentence are indexed once, instead of being
+//queried and searched again for every mnode
 void addSyntaxFeatures(inputAnnieAS){
   set1= doc.getAnnotations(inputAnnieAS)
   sentList=set1.get("Sentence").inDocumentOrder()
+  syntaxSet=set1.get("SyntaxTreeNode")
   sentList.each{s->
-    //println doc.stringFor(s)
-    nodes=outputAS.getContained(s.start(),s.end()).inDocumentOrder()
-  
-    nodes.each{n->
-      FeatureMap features = Factory.newFeatureMap()
-      if (["mnode"].contains(n.type)){
-        processSyntax(s,n,n.features)
-        //println "${doc.stringFor(n)}\t$features}"
-      }
+    nodes=outputAS.getContained(s.start(),s.end()).inDocumentOrder().findAll{n->
+      ["mnode"].contains(n.type)
     }
-    //println " "
+    new SyntaxFeatureIndex(syntaxSet.getContained(s.start(),s.end())).addFeatures(nodes)
   }
 }
 
-
-//get the syntactic siblings of node n in sentence s
-//FIXME: set1, s...
-void processSyntax(s,n,feats){
-       //println "Process syntax: ${doc.stringFor(s)}\t${doc.stringFor(n)}"
-       if(s.start()<=n.start())
-         set2=set1.get("SyntaxTreeNode").getContained(s.start(),s.end())
-         set3=set2.findAll{it.start()>=n.start() && it.end()<=n.end()}.sort()
-         if (set3.size<=0){
-           println "Missing syntax nodes!!" // ${doc.stringFor(s)}\t${doc.stringFor(n)}\t" //${set1.get('SyntaxTreeNode').getContained(s.start(),s.end())}"
-           return
-         }
-         signNode=set3[-1]
-         parentNode=set2.find{
-           consts=it.getFeatures().get("consists")
-           consts!=null && consts.contains(signNode.id)
-         }
-         if (parentNode!=null){
-           parentChunk=parentNode.features.cat
-           signChunk=signNode.features.cat
-           siblings=parentNode.features.consists.collect{myid->
-             set2.find{it.id==myid}
-           }
-           siblings=siblings.findAll{it->
-             //!(it.start()>=n.start() && it.end()<=n.end()) && 
-             it.features.cat.matches("[A-Za-z]+") || (it.start()==n.start() && it.end()==n.end())
-           }
-           prevChunk="NA"
-           if (siblings.collect{it.id}.any{it<signNode.id}){
-             prevChunk=siblings.findAll{it.id<signNode.id}[-1].features.cat
-           }           
-           nextChunk="NA"
-           if (siblings.collect{it.id}.any{it>signNode.id}){
-             nextChunk=siblings.findAll{it.id>signNode.id}[0].features.cat
-           }
-           //siblings.each{it->println "${it.features.cat}\t${it.id}\t${doc.stringFor(it)}"}
-           //println "${parentChunk} (${prevChunk} ${signChunk} ${nextChunk})"
-           //
-           feats.put("parentC",parentChunk)
-           feats.put("prevC" ,prevChunk)
-           feats.put("signC" ,signChunk)
-           feats.put("nextC" ,nextChunk)
-         }else{
-           //println "Node missing: id=${signNode.id} ${parentNode}"
-         }
-       
-   return    
-}
-
 void writeFeaturestoFile(filePath,inputAnnieAS,crfNodeAnn,append){
   //println "Writing sign features to ${filePath}"    
   outf=new BufferedWriter(new FileWriter(filePath,append))
@@ -322,9 +298,7 @@ void writeFeaturestoFile(filePath,inputAnnieAS,crfNodeAnn,append){
   sentList=set1.get("Sentence").inDocumentOrder()
 
  
-  featuresList=["word","pos","marker"]
-  if (useSyntax)
-    featuresList=["word","pos","marker","parentC","prevC","signC","nextC"]
+  featuresList=featureNames()
   //println "${useSyntax} ${featuresList}"
   //TODO: FIX use a string buffer/builder
   sentList.each{s->
@@ -354,6 +328,13 @@ void writeFeaturestoFile(filePath,inputAnnieAS,crfNodeAnn,append){
   return
 }
 
+//the columns written for each mnode, before the tag
+def featureNames(){
+  if (useSyntax)
+    return ["word","pos","marker","parentC","prevC","signC","nextC"]
+  return ["word","pos","marker"]
+}
+
 void testSycmd(){
     cmdline="ls -l /"
     Process pr =Runtime.getRuntime().exec(cmdline);
@@ -366,42 +347,69 @@ void testSycmd(){
 
 void addPredictions(inputAnnieAS,crfNodeAnn,signAnn){
   //testSycmd()
-  cmdline="chmod +x ${crfprefix}crf_test"
-  Process pr =Runtime.getRuntime().exec(cmdline);
-  exitVal = pr.waitFor();
-      
-  cmdline="${crfprefix}crf_test -m ${prefix}${modelFile} ${outFileBuffer} "
-  
-  pr = Runtime.getRuntime().exec(cmdline);
-  BufferedReader inf = new BufferedReader(new InputStreamReader(pr.getInputStream()));
-  
+  crfTest=new File("${crfprefix}crf_test")
+  subprocesses.checkBinary(crfTest)
+  cmdline=[crfTest.path, "-m", "${prefix}${modelFile}".toString(), outFileBuffer.toString()]
+
   //Step5: import predictions
   set1= doc.getAnnotations(inputAnnieAS)
   sentList=set1.get("Sentence").inDocumentOrder()
   ///println sentList
 
+  //stderr is drained and a hung crf_test is killed by the manager
+  subprocesses.run(cmdline, { inf ->
+    sentList.each{s->
+      annList=outputAS.get(crfNodeAnn).getContained(s.start.offset,s.end.offset).inDocumentOrder()
+      annList.each{m ->
+        line=inf.readLine()
+        //println "${doc.stringFor(m)}\t${line}"
+      
+        if (line!=null && line.indexOf("M:Y")>=0){
+          predtag=line.split()[-1]
+          FeatureMap features = Factory.newFeatureMap()
+          features.put("type",predtag)
+          features.put("pos",m.getFeatures().get("pos"))
+          features.put("complexity",0.33)
+          features.put("confidence",0.53)
+          outputAS.add(m.start(),m.end(),signAnn,features)
+          //println line
+        }
+      }
+      line=inf.readLine() //should be blank line between sentences
+    }
+  } as SubprocessManager.OutputReader)
+}
+
+//same as addPredictions, but each sentence is labelled by crfLabeller
+//with the rows that would have been written to the crf_test input file
+void addPredictionsInProcess(inputAnnieAS,crfNodeAnn,signAnn){
+  featuresList=featureNames()
+  set1= doc.getAnnotations(inputAnnieAS)
+  sentList=set1.get("Sentence").inDocumentOrder()
+
   sentList.each{s->
     annList=outputAS.get(crfNodeAnn).getContained(s.start.offset,s.end.offset).inDocumentOrder()
-    annList.each{m ->
-      line=inf.readLine()
-      //println "${doc.stringFor(m)}\t${line}"
-    
-      if (line!=null && line.indexOf("M:Y")>=0){
-        predtag=line.split()[-1]
+    if (annList.isEmpty()) return
+    rows=annList.collect{m ->
+      row=featuresList.collect{
+        feats=m.getFeatures().get(it)
+        feats==null ? "null" : feats.toString()
+      }
+      row.add(String.valueOf(m.getFeatures().get("tag")))
+      row as String[]
+    }
+    predictions=crfLabeller.label(rows)
+    annList.eachWithIndex{m, i ->
+      if (rows[i].any{it.indexOf("M:Y")>=0}){
         FeatureMap features = Factory.newFeatureMap()
-        features.put("type",predtag)
+        features.put("type",predictions[i])
         features.put("pos",m.getFeatures().get("pos"))
         features.put("complexity",0.33)
         features.put("confidence",0.53)
         outputAS.add(m.start(),m.end(),signAnn,features)
-        //println line
       }
     }
-    line=inf.readLine() //should be blank line between sentences
   }
-  inf.close()
-  exitVal = pr.waitFor();
-  //println "Exited with error code ${exitVal}"
 }
 
 /*
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Document;
+import gate.Factory;
+import gate.creole.ANNIEConstants;
+import gate.util.GateException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tags a collection of documents with one SignTagger, so GATE and the
+ * controllers are initialised once for the whole collection. Documents are
+ * processed in parallel by the worker pool and written in input order.
+ *
+ * @author dinel
+ */
+
+public class BatchProcessor {
+    private static final Logger LOGGER = Logger.getLogger(BatchProcessor.class.getName());
+
+    private final SignTagger processor;
+    private final OutputFormat outputFormat;
+
+    /**
+     * Where to write one output per input, mirroring the directories of
+     * the inputs. If null, all the outputs are written to the same stream.
+     */
+    private final File outputDir;
+
+    /**
+     * The path of each output under outputDir, set by run
+     */
+    private Map<File, Path> outputNames = Collections.emptyMap();
+
+    public BatchProcessor(SignTagger processor, OutputFormat outputFormat, File outputDir) {
+        this.processor = processor;
+        this.outputFormat = outputFormat;
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * Expands the inputs given on the command line. Each one can be a file,
+     * a directory (all its files, recursively) or a glob such as
+     * "books/*.txt".
+     * @param args
+     * @param fileList a file with one input per line, or null
+     * @return the files to process, in a stable order
+     * @throws IOException
+     */
+    public static List<File> collectInputs(List<String> args, File fileList) throws IOException {
+        List<String> specs = new ArrayList<>(args);
+        if(fileList != null) {
+            Files.readAllLines(fileList.toPath(), StandardCharsets.UTF_8).stream()
+                    .map(String::trim)
+                    .filter((line) -> !line.isEmpty())
+                    .forEach(specs::add);
+        }
+
+        List<File> inputs = new ArrayList<>();
+        for(String spec : specs) {
+            File file = new File(spec);
+            if(file.isDirectory()) {
+                inputs.addAll(listFiles(file.toPath(), null));
+            } else if(isGlob(spec)) {
+                inputs.addAll(listFiles(globBase(spec),
+                        FileSystems.getDefault().getPathMatcher("glob:" + spec)));
+            } else if(file.isFile()) {
+                inputs.add(file);
+            } else {
+                throw new IOException("Cannot find the input " + spec);
+            }
+        }
+        return inputs;
+    }
+
+    private static boolean isGlob(String spec) {
+        return spec.indexOf('*') >= 0 || spec.indexOf('?') >= 0 ||
+               spec.indexOf('[') >= 0 || spec.indexOf('{') >= 0;
+    }
+
+    /**
+     * @return the longest leading directory of the glob without wildcards
+     */
+    private static Path globBase(String glob) {
+        String[] parts = glob.split("/");
+        StringBuilder base = new StringBuilder(glob.startsWith("/") ? "/" : "");
+        for(int i = 0; i < parts.length - 1 && !isGlob(parts[i]); i++) {
+            if(!parts[i].isEmpty()) base.append(parts[i]).append('/');
+        }
+        return base.length() == 0 ? Paths.get(".") : Paths.get(base.toString());
+    }
+
+    private static List<File> listFiles(Path dir, PathMatcher matcher) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile)
+                    .filter((f) -> matcher == null || matcher.matches(f) ||
+                                   matcher.matches(f.normalize()))
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Processes all the inputs and prints a throughput summary on stderr.
+     * @param inputs
+     * @param output the stream used when there is no output directory
+     * @return the statistics of the run
+     * @throws IOException
+     */
+    public Statistics run(List<File> inputs, Writer output) throws IOException {
+        if(outputDir != null) outputNames = outputNames(inputs);
+        int threads = Math.max(1, processor.getPoolSize());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Statistics stats = new Statistics(inputs.size());
+
+        // a few documents per worker are kept in flight, so the results
+        // waiting to be written in order stay bounded
+        int window = 2 * threads;
+        Deque<Future<Result>> pending = new ArrayDeque<>();
+        try {
+            for(File input : inputs) {
+                pending.add(executor.submit(() -> tag(input)));
+                if(pending.size() >= window) {
+                    write(pending.poll(), output, stats);
+                }
+            }
+            while(!pending.isEmpty()) {
+                write(pending.poll(), output, stats);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        output.flush();
+
+        stats.finish();
+        System.err.println(stats);
+        return stats;
+    }
+
+    /**
+     * Mirrors the inputs under outputDir, relative to the deepest directory
+     * which contains all of them, so inputs with the same name in
+     * different directories (e.g. a/ch1.txt and b/ch1.txt) do not
+     * overwrite each other's output
+     */
+    private Map<File, Path> outputNames(List<File> inputs) {
+        List<Path> paths = new ArrayList<>();
+        Path root = null;
+        for(File input : inputs) {
+            Path path = input.toPath().toAbsolutePath().normalize();
+            paths.add(path);
+            Path parent = path.getParent();
+            if(root == null) {
+                root = parent;
+            } else {
+                while(root != null && !parent.startsWith(root)) root = root.getParent();
+            }
+        }
+
+        Map<File, Path> names = new HashMap<>();
+        for(int i = 0; i < inputs.size(); i++) {
+            // inputs on different drives have no common directory
+            Path relative = root != null ? root.relativize(paths.get(i)) :
+                    paths.get(i).getRoot().relativize(paths.get(i));
+            names.put(inputs.get(i), outputDir.toPath().resolve(relative)
+                    .resolveSibling(relative.getFileName() + "." + outputFormat.getName()));
+        }
+        return names;
+    }
+
+    private Result tag(File input) throws GateException, IOException {
+        long start = System.nanoTime();
+        Result result = new Result();
+
+        Document doc = Factory.newDocument(input.toURI().toURL());
+        try {
+            if(processor.process(doc) == null) {
+                result.failed = true;
+                return result;
+            }
+            result.tokens = doc.getAnnotations().get(
+                    ANNIEConstants.TOKEN_ANNOTATION_TYPE).size();
+
+            if(outputDir == null) {
+                StringWriter buffer = new StringWriter();
+                SimpleSyntaxApp.printDocument(doc, outputFormat.createWriter(buffer));
+                result.output = buffer.toString();
+            } else {
+                File outFile = outputNames.get(input).toFile();
+                outFile.getParentFile().mkdirs();
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(outFile), StandardCharsets.UTF_8),
+                        SimpleSyntaxApp.OUTPUT_BUFFER_SIZE)) {
+                    SimpleSyntaxApp.printDocument(doc, outputFormat.createWriter(out));
+                }
+            }
+        } finally {
+            processor.release(doc);
+        }
+
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private void write(Future<Result> future, Writer output, Statistics stats)
+            throws IOException {
+        Result result;
+        try {
+            result = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a document", e);
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.SEVERE, null, e.getCause());
+            stats.failures++;
+            return;
+        }
+
+        if(result.failed) {
+            stats.failures++;
+            return;
+        }
+        if(result.output != null) output.write(result.output);
+        stats.add(result);
+    }
+
+    private static class Result {
+        boolean failed;
+        int tokens;
+        long nanos;
+        String output;
+    }
+
+    /**
+     * Throughput of a batch run
+     */
+    public static class Statistics {
+        private final long start = System.nanoTime();
+        private long elapsed;
+        private long[] latencies;
+        private int documents;
+        private long tokens;
+        private int failures;
+
+        Statistics(int expected) {
+            latencies = new long[Math.max(expected, 1)];
+        }
+
+        void add(Result result) {
+            if(documents == latencies.length) {
+                latencies = Arrays.copyOf(latencies, 2 * documents);
+            }
+            latencies[documents++] = result.nanos;
+            tokens += result.tokens;
+        }
+
+        void finish() {
+            elapsed = System.nanoTime() - start;
+            Arrays.sort(latencies, 0, documents);
+        }
+
+        public int getDocuments() {
+            return documents;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        public double getDocumentsPerSecond() {
+            return documents / (elapsed / 1e9);
+        }
+
+        public double getTokensPerSecond() {
+            return tokens / (elapsed / 1e9);
+        }
+
+        /**
+         * @param p a percentile between 0 and 100
+         * @return the per-document latency in milliseconds
+         */
+        public double getLatencyPercentile(double p) {
+            if(documents == 0) return 0;
+            int rank = (int) Math.ceil(p / 100 * documents) - 1;
+            return latencies[Math.max(0, Math.min(rank, documents - 1))] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d documents (%d failed), %d tokens in %.1f s: "
+                    + "%.2f docs/s, %.0f tokens/s, latency p50 %.1f ms, p99 %.1f ms",
+                    documents, failures, tokens, elapsed / 1e9,
+                    getDocumentsPerSecond(), getTokensPerSecond(),
+                    getLatencyPercentile(50), getLatencyPercentile(99));
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A long running crf_test process which receives sentences on its standard
+ * input and returns the labels on its standard output, so the model is
+ * loaded once per worker and no temporary file is needed.
+ *
+ * crf_test does not flush its output after each sentence, so by default the
+ * command is wrapped in "stdbuf -oL" to make it line buffered. stdbuf is
+ * part of GNU coreutils; where it is missing (macOS, BSD) the wrapper has
+ * to be changed, e.g. to "gstdbuf -oL", or crf_test built line buffered and
+ * the wrapper left empty. check() reports a missing wrapper.
+ *
+ * The process is started by a SubprocessManager: it counts against the
+ * limit of running children, its stderr is drained and each sentence must
+ * be labelled before the manager's deadline, otherwise the process is
+ * killed and restarted by the next call.
+ *
+ * @author dinel
+ */
+
+public class CRFCoProcess implements CRFLabeller {
+    private static final Logger LOGGER = Logger.getLogger(CRFCoProcess.class.getName());
+
+    private final List<String> command;
+    private final File crfTest;
+    private final String wrapperCommand;
+    private final SubprocessManager subprocesses;
+
+    private SubprocessManager.Child child;
+    private BufferedWriter input;
+    private BufferedReader output;
+
+    /**
+     * @param crfTest the crf_test binary
+     * @param modelFile the model passed to crf_test -m
+     * @param wrapper command used to run crf_test line buffered, e.g.
+     * "stdbuf -oL". It can be empty.
+     */
+    public CRFCoProcess(File crfTest, File modelFile, String wrapper) {
+        this(crfTest, modelFile, wrapper, SubprocessManager.getDefault());
+    }
+
+    /**
+     * @param crfTest the crf_test binary
+     * @param modelFile the model passed to crf_test -m
+     * @param wrapper command used to run crf_test line buffered, e.g.
+     * "stdbuf -oL". It can be empty.
+     * @param subprocesses starts the process
+     */
+    public CRFCoProcess(File crfTest, File modelFile, String wrapper,
+            SubprocessManager subprocesses) {
+        this.crfTest = crfTest;
+        this.subprocesses = subprocesses;
+        command = new ArrayList<>();
+        if(wrapper != null && !wrapper.trim().isEmpty()) {
+            command.addAll(Arrays.asList(wrapper.trim().split("\\s+")));
+        }
+        wrapperCommand = command.isEmpty() ? null : command.get(0);
+        command.add(crfTest.getPath());
+        command.add("-m");
+        command.add(modelFile.getPath());
+    }
+
+    /**
+     * Checks that crf_test and the wrapper can be run, so a missing binary
+     * is reported as such rather than as a process which keeps failing
+     * @throws SubprocessException
+     */
+    public void check() throws SubprocessException {
+        if(wrapperCommand != null) subprocesses.checkCommand(wrapperCommand);
+        subprocesses.checkBinary(crfTest);
+    }
+
+    /**
+     * Sends one sentence to crf_test. If the process died in the meantime
+     * it is restarted and the sentence is sent again once. A sentence which
+     * timed out is not sent again.
+     */
+    @Override
+    public synchronized String[] label(List<String[]> rows) throws IOException {
+        if(rows.isEmpty()) return new String[0];
+
+        try {
+            return exchange(rows);
+        } catch (SubprocessException e) {
+            close();
+            throw e;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "crf_test failed, restarting it", e);
+            close();
+        }
+
+        try {
+            return exchange(rows);
+        } catch (SubprocessException e) {
+            close();
+            throw e;
+        } catch (IOException e) {
+            SubprocessException failure = child == null ?
+                    new SubprocessException(SubprocessException.Kind.FAILED, command, -1, "", e) :
+                    child.failure(SubprocessException.Kind.FAILED, e);
+            close();
+            throw failure;
+        }
+    }
+
+    private String[] exchange(List<String[]> rows) throws IOException {
+        if(child == null || !child.getProcess().isAlive()) start();
+
+        long timeout = subprocesses.getTimeoutMillis();
+        ScheduledFuture<?> deadline = timeout > 0 ? child.deadline(timeout) : null;
+        try {
+            return send(rows);
+        } catch (IOException e) {
+            if(child.isTimedOut()) throw child.failure(SubprocessException.Kind.TIMEOUT, e);
+            throw e;
+        } finally {
+            if(deadline != null) deadline.cancel(false);
+        }
+    }
+
+    private String[] send(List<String[]> rows) throws IOException {
+        for(String[] row : rows) {
+            for(int i = 0; i < row.length; i++) {
+                if(i > 0) input.write(' ');
+                input.write(row[i]);
+            }
+            input.write('\n');
+        }
+        input.write('\n');
+        input.flush();
+
+        String[] labels = new String[rows.size()];
+        for(int i = 0; i < labels.length; i++) {
+            String line = output.readLine();
+            if(line == null) throw new IOException("crf_test closed its output");
+            int split = Math.max(line.lastIndexOf('\t'), line.lastIndexOf(' '));
+            labels[i] = line.substring(split + 1);
+        }
+        // each sentence is followed by a blank line
+        String line = output.readLine();
+        if(line == null || !line.isEmpty()) {
+            throw new IOException("crf_test output is out of sync");
+        }
+
+        return labels;
+    }
+
+    private void start() throws IOException {
+        close();
+
+        check();
+        try {
+            child = subprocesses.start(command);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while starting crf_test", e);
+        }
+        input = new BufferedWriter(new OutputStreamWriter(
+                child.getProcess().getOutputStream(), StandardCharsets.UTF_8));
+        output = new BufferedReader(new InputStreamReader(
+                child.getProcess().getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Stops the process. It will be started again by the next call to label.
+     */
+    public synchronized void close() {
+        if(child == null) return;
+
+        try {
+            input.close();
+        } catch (IOException e) {
+            // the process is gone
+        }
+        child.close();
+        child = null;
+        input = null;
+        output = null;
+    }
+}
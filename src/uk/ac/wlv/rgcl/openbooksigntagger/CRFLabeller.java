@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Labels the mnodes of one sentence with a CRF++ model. It is passed to the
+ * Groovy script as the crfLabeller parameter.
+ * 
+ * @author dinel
+ */
+
+public interface CRFLabeller {
+    
+    /**
+     * @param rows one row per mnode, with the same columns as a line of the
+     * crf_test input. The list and the arrays may be reused by the caller
+     * after the call, so a labeller which keeps them must copy them.
+     * @return the predicted label for each row
+     * @throws IOException if the model cannot be applied
+     */
+    String[] label(List<String[]> rows) throws IOException;
+}
@@ -0,0 +1,483 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A CRF++ model decoded inside the JVM. It reads the model written by
+ * crf_learn (binary, or the text version produced with -t) once and then
+ * labels sentences with the same feature expansion and Viterbi search as
+ * crf_test, so the predicted labels are the same as the ones printed by
+ * crf_test for the same input.
+ *
+ * Instances are immutable and can be shared between workers.
+ *
+ * @author dinel
+ */
+
+public class CRFModel implements CRFLabeller {
+    /**
+     * Values used by CRF++ for rows before the beginning and after the end
+     * of a sentence
+     */
+    private static final String[] BOS = {"_B-1", "_B-2", "_B-3", "_B-4",
+        "_B-5", "_B-6", "_B-7", "_B-8"};
+    private static final String[] EOS = {"_B+1", "_B+2", "_B+3", "_B+4",
+        "_B+5", "_B+6", "_B+7", "_B+8"};
+
+    private static final int MODEL_VERSION = 100;
+
+    private final String[] labels;
+    private final Template[] unigramTemplates;
+    private final Template[] bigramTemplates;
+    private final FeatureIndex index;
+    private final double costFactor;
+    private final int xsize;
+
+    /* only one of them is set: binary models store floats, text models doubles */
+    private final float[] alphaFloat;
+    private final double[] alpha;
+
+    private CRFModel(String[] labels, List<String> templates, FeatureIndex index,
+            double costFactor, int xsize, float[] alphaFloat, double[] alpha)
+            throws IOException {
+        this.labels = labels;
+        this.index = index;
+        this.costFactor = costFactor;
+        this.xsize = xsize;
+        this.alphaFloat = alphaFloat;
+        this.alpha = alpha;
+
+        List<Template> unigrams = new ArrayList<>();
+        List<Template> bigrams = new ArrayList<>();
+        for(String t : templates) {
+            if(t.isEmpty() || t.charAt(0) == '#') continue;
+            if(t.charAt(0) == 'U') unigrams.add(new Template(t));
+            else if(t.charAt(0) == 'B') bigrams.add(new Template(t));
+            else throw new IOException("Unknown template type: " + t);
+        }
+        unigramTemplates = unigrams.toArray(new Template[unigrams.size()]);
+        bigramTemplates = bigrams.toArray(new Template[bigrams.size()]);
+    }
+
+    /**
+     * Loads a model written by crf_learn. Text models (crf_learn -t) are
+     * recognised by their "version:" header, everything else is read as a
+     * binary model.
+     * @param modelFile
+     * @return the loaded model
+     * @throws IOException if the file cannot be read or is not a CRF++ model
+     */
+    public static CRFModel load(File modelFile) throws IOException {
+        ByteBuffer buffer;
+        try (FileInputStream input = new FileInputStream(modelFile);
+             FileChannel channel = input.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        byte[] header = "version:".getBytes(StandardCharsets.US_ASCII);
+        boolean text = buffer.remaining() >= header.length;
+        for(int i = 0; text && i < header.length; i++) {
+            text = buffer.get(i) == header[i];
+        }
+
+        if(text) return loadText(modelFile);
+        return loadBinary(buffer.order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    private static CRFModel loadBinary(ByteBuffer buffer) throws IOException {
+        try {
+            int version = buffer.getInt();
+            if(version / 100 != MODEL_VERSION / 100) {
+                throw new IOException("Unsupported CRF++ model version " + version);
+            }
+            buffer.getInt(); // type
+            double costFactor = buffer.getDouble();
+            int maxid = buffer.getInt();
+            int xsize = buffer.getInt();
+            int dsize = buffer.getInt();
+
+            List<String> labels = readStrings(buffer, buffer.getInt());
+            List<String> templates = readStrings(buffer, buffer.getInt());
+
+            int[] base = new int[dsize / 8];
+            int[] check = new int[dsize / 8];
+            for(int i = 0; i < base.length; i++) {
+                base[i] = buffer.getInt();
+                check[i] = buffer.getInt();
+            }
+            buffer.position(buffer.position() + dsize % 8);
+
+            float[] alphaFloat = new float[maxid];
+            buffer.asFloatBuffer().get(alphaFloat);
+
+            return new CRFModel(labels.toArray(new String[labels.size()]),
+                    templates, new DoubleArrayIndex(base, check), costFactor,
+                    xsize, alphaFloat, null);
+        } catch(RuntimeException e) {
+            throw new IOException("Malformed CRF++ model", e);
+        }
+    }
+
+    /**
+     * Reads a block of '\0' terminated strings. Empty strings are padding.
+     */
+    private static List<String> readStrings(ByteBuffer buffer, int size) {
+        byte[] block = new byte[size];
+        buffer.get(block);
+
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        for(int i = 0; i < size; i++) {
+            if(block[i] == 0) {
+                if(i > start) {
+                    result.add(new String(block, start, i - start, StandardCharsets.UTF_8));
+                }
+                start = i + 1;
+            }
+        }
+        return result;
+    }
+
+    private static CRFModel loadText(File modelFile) throws IOException {
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(
+                new FileInputStream(modelFile), StandardCharsets.UTF_8))) {
+            Map<String, String> header = new HashMap<>();
+            for(String line : readSection(input)) {
+                int colon = line.indexOf(':');
+                if(colon < 0) throw new IOException("Malformed header line: " + line);
+                header.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+            if(!header.containsKey("version") || !header.containsKey("maxid") ||
+               !header.containsKey("xsize")) {
+                throw new IOException("Incomplete CRF++ model header");
+            }
+            if(Integer.parseInt(header.get("version")) / 100 != MODEL_VERSION / 100) {
+                throw new IOException("Unsupported CRF++ model version " + header.get("version"));
+            }
+            double costFactor = Double.parseDouble(header.getOrDefault("cost-factor", "1"));
+            int maxid = Integer.parseInt(header.get("maxid"));
+            int xsize = Integer.parseInt(header.get("xsize"));
+
+            List<String> labels = readSection(input);
+            List<String> templates = readSection(input);
+
+            Map<String, Integer> features = new HashMap<>();
+            for(String line : readSection(input)) {
+                int space = line.indexOf(' ');
+                if(space < 0) throw new IOException("Malformed feature line: " + line);
+                features.put(line.substring(space + 1), Integer.valueOf(line.substring(0, space)));
+            }
+
+            double[] alpha = new double[maxid];
+            int i = 0;
+            for(String line : readSection(input)) {
+                if(i >= maxid) throw new IOException("Too many weights in the model");
+                alpha[i++] = Double.parseDouble(line);
+            }
+            if(i != maxid) throw new IOException("Expected " + maxid + " weights, found " + i);
+
+            return new CRFModel(labels.toArray(new String[labels.size()]), templates,
+                    new HashIndex(features), costFactor, xsize, null, alpha);
+        } catch(NumberFormatException e) {
+            throw new IOException("Malformed CRF++ model", e);
+        }
+    }
+
+    /**
+     * Reads lines up to the next blank line
+     */
+    private static List<String> readSection(BufferedReader input) throws IOException {
+        List<String> lines = new ArrayList<>();
+        String line;
+        while((line = input.readLine()) != null && !line.isEmpty()) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * @return the labels known by the model, in the order used by CRF++
+     */
+    public String[] getLabels() {
+        return labels.clone();
+    }
+
+    /**
+     * @return the number of feature columns expected in each row
+     */
+    public int getColumns() {
+        return xsize;
+    }
+
+    /**
+     * Labels one sentence. Each row holds the columns of one line of the
+     * crf_test input; extra columns (e.g. the gold answer) are ignored.
+     * @param rows the sentence, one row per node
+     * @return the predicted label for each row
+     */
+    @Override
+    public String[] label(List<String[]> rows) {
+        int size = rows.size();
+        String[] result = new String[size];
+        if(size == 0) return result;
+
+        for(String[] row : rows) {
+            if(row.length < xsize) {
+                throw new IllegalArgumentException("Expected at least " + xsize
+                        + " columns, found " + row.length);
+            }
+        }
+
+        int ysize = labels.length;
+        StringBuilder buffer = new StringBuilder(64);
+
+        // node costs
+        double[][] nodeCost = new double[size][ysize];
+        for(int cur = 0; cur < size; cur++) {
+            int[] features = expand(unigramTemplates, rows, cur, buffer);
+            for(int y = 0; y < ysize; y++) {
+                nodeCost[cur][y] = cost(features, y);
+            }
+        }
+
+        // path costs, the same for every position when there are no bigrams
+        double[][][] pathCost = new double[size][][];
+        for(int cur = 1; cur < size; cur++) {
+            int[] features = expand(bigramTemplates, rows, cur, buffer);
+            pathCost[cur] = new double[ysize][ysize];
+            for(int ly = 0; ly < ysize; ly++) {
+                for(int ry = 0; ry < ysize; ry++) {
+                    pathCost[cur][ly][ry] = cost(features, ly * ysize + ry);
+                }
+            }
+        }
+
+        // Viterbi, ties are resolved in favour of the first label like in CRF++
+        double[][] bestCost = new double[size][ysize];
+        int[][] prev = new int[size][ysize];
+        for(int y = 0; y < ysize; y++) {
+            bestCost[0][y] = nodeCost[0][y];
+            prev[0][y] = -1;
+        }
+        for(int cur = 1; cur < size; cur++) {
+            for(int y = 0; y < ysize; y++) {
+                double best = -1e37;
+                int bestY = -1;
+                for(int ly = 0; ly < ysize; ly++) {
+                    double c = bestCost[cur - 1][ly] + pathCost[cur][ly][y] + nodeCost[cur][y];
+                    if(c > best) {
+                        best = c;
+                        bestY = ly;
+                    }
+                }
+                prev[cur][y] = bestY;
+                bestCost[cur][y] = bestY >= 0 ? best : nodeCost[cur][y];
+            }
+        }
+
+        double best = -1e37;
+        int y = -1;
+        for(int j = 0; j < ysize; j++) {
+            if(best < bestCost[size - 1][j]) {
+                best = bestCost[size - 1][j];
+                y = j;
+            }
+        }
+        for(int cur = size - 1; cur >= 0 && y >= 0; cur--) {
+            result[cur] = labels[y];
+            y = prev[cur][y];
+        }
+
+        return result;
+    }
+
+    private double cost(int[] features, int offset) {
+        if(alphaFloat != null) {
+            float c = 0;
+            for(int f : features) c += alphaFloat[f + offset];
+            return costFactor * c;
+        }
+        double c = 0;
+        for(int f : features) c += alpha[f + offset];
+        return costFactor * c;
+    }
+
+    private int[] expand(Template[] templates, List<String[]> rows, int cur,
+            StringBuilder buffer) {
+        int[] features = new int[templates.length];
+        int n = 0;
+        for(Template template : templates) {
+            buffer.setLength(0);
+            template.apply(buffer, rows, cur);
+            int id = index.lookup(buffer);
+            if(id != -1) features[n++] = id;
+        }
+        if(n == features.length) return features;
+        int[] found = new int[n];
+        System.arraycopy(features, 0, found, 0, n);
+        return found;
+    }
+
+    /**
+     * A feature template such as U05:%x[-1,1] split into literal text and
+     * references to the cells of the sentence
+     */
+    static class Template {
+        private final String[] literals;
+        private final int[] rows;
+        private final int[] columns;
+
+        Template(String template) throws IOException {
+            List<String> lit = new ArrayList<>();
+            List<int[]> refs = new ArrayList<>();
+            StringBuilder current = new StringBuilder();
+            int i = 0;
+            while(i < template.length()) {
+                if(template.startsWith("%x[", i)) {
+                    int close = template.indexOf(']', i);
+                    if(close < 0) throw new IOException("Malformed template: " + template);
+                    String[] parts = template.substring(i + 3, close).split(",");
+                    if(parts.length != 2) throw new IOException("Malformed template: " + template);
+                    try {
+                        refs.add(new int[]{Integer.parseInt(parts[0].trim()),
+                            Integer.parseInt(parts[1].trim())});
+                    } catch(NumberFormatException e) {
+                        throw new IOException("Malformed template: " + template, e);
+                    }
+                    lit.add(current.toString());
+                    current.setLength(0);
+                    i = close + 1;
+                } else if(template.charAt(i) == '%') {
+                    throw new IOException("Unsupported template macro: " + template);
+                } else {
+                    current.append(template.charAt(i++));
+                }
+            }
+            lit.add(current.toString());
+
+            literals = lit.toArray(new String[lit.size()]);
+            rows = new int[refs.size()];
+            columns = new int[refs.size()];
+            for(int j = 0; j < refs.size(); j++) {
+                rows[j] = refs.get(j)[0];
+                columns[j] = refs.get(j)[1];
+            }
+        }
+
+        void apply(StringBuilder buffer, List<String[]> sentence, int cur) {
+            for(int j = 0; j < rows.length; j++) {
+                buffer.append(literals[j]);
+                int idx = cur + rows[j];
+                if(idx < 0) buffer.append(BOS[-idx - 1]);
+                else if(idx >= sentence.size()) buffer.append(EOS[idx - sentence.size()]);
+                else buffer.append(sentence.get(idx)[columns[j]]);
+            }
+            buffer.append(literals[rows.length]);
+        }
+    }
+
+    /**
+     * Maps a feature string to the id of its first weight, -1 if unknown
+     */
+    interface FeatureIndex {
+        int lookup(CharSequence key);
+    }
+
+    /**
+     * The Darts double array trie stored in binary models. Keys are walked
+     * byte by byte in UTF-8 without building intermediate strings.
+     */
+    static class DoubleArrayIndex implements FeatureIndex {
+        private final int[] base;
+        private final int[] check;
+
+        DoubleArrayIndex(int[] base, int[] check) {
+            this.base = base;
+            this.check = check;
+        }
+
+        @Override
+        public int lookup(CharSequence key) {
+            if(base.length == 0) return -1;
+            int b = base[0];
+            int length = key.length();
+            for(int i = 0; i < length; i++) {
+                char c = key.charAt(i);
+                if(c < 0x80) {
+                    b = next(b, c);
+                } else if(c < 0x800) {
+                    b = next(b, 0xC0 | (c >> 6));
+                    if(b != -1) b = next(b, 0x80 | (c & 0x3F));
+                } else if(Character.isHighSurrogate(c) && i + 1 < length &&
+                          Character.isLowSurrogate(key.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, key.charAt(++i));
+                    b = next(b, 0xF0 | (cp >> 18));
+                    if(b != -1) b = next(b, 0x80 | ((cp >> 12) & 0x3F));
+                    if(b != -1) b = next(b, 0x80 | ((cp >> 6) & 0x3F));
+                    if(b != -1) b = next(b, 0x80 | (cp & 0x3F));
+                } else {
+                    b = next(b, 0xE0 | (c >> 12));
+                    if(b != -1) b = next(b, 0x80 | ((c >> 6) & 0x3F));
+                    if(b != -1) b = next(b, 0x80 | (c & 0x3F));
+                }
+                if(b == -1) return -1;
+            }
+
+            if(b < 0 || b >= base.length) return -1;
+            int n = base[b];
+            if(check[b] == b && n < 0) return -n - 1;
+            return -1;
+        }
+
+        private int next(int b, int unsignedByte) {
+            int p = b + unsignedByte + 1;
+            if(p < 0 || p >= base.length || check[p] != b) return -1;
+            return base[p];
+        }
+    }
+
+    /**
+     * Feature lookup for text models
+     */
+    static class HashIndex implements FeatureIndex {
+        private final Map<String, Integer> features;
+
+        HashIndex(Map<String, Integer> features) {
+            this.features = features;
+        }
+
+        @Override
+        public int lookup(CharSequence key) {
+            Integer id = features.get(key.toString());
+            return id == null ? -1 : id;
+        }
+    }
+}
@@ -0,0 +1,695 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Trains a CRF++ model inside the JVM, in place of crf_learn. It reads the
+ * same template and training files, keeps the features seen at least
+ * cutoff times (crf_learn -f) and minimises the L2 regularised negative
+ * log-likelihood (crf_learn -c) with L-BFGS. The gradient is computed in
+ * parallel: the sentences are split into one block per thread and the
+ * blocks are summed in a fixed order, so the same corpus, options and
+ * number of threads always give the same model.
+ *
+ * The model is written in the text format of crf_learn -t, which is read
+ * by CRFModel. crf_test needs a binary model, so the "coprocess" and
+ * "file" decoders still need crf_learn.
+ *
+ * When a checkpoint file is set, the weights are saved there as a model
+ * every checkpointInterval iterations, and a later run on the same corpus
+ * starts from them. The checkpoint is deleted once the model is written,
+ * so only an interrupted run is resumed.
+ *
+ * @author dinel
+ */
+
+public class CRFTrainer {
+    private static final Logger LOGGER = Logger.getLogger(CRFTrainer.class.getName());
+
+    /* number of corrections kept by L-BFGS */
+    private static final int HISTORY = 5;
+
+    /* iterations in a row below eta before stopping, like crf_learn */
+    private static final int CONVERGED_ITERATIONS = 3;
+
+    private int cutoff = 1;
+    private double cost = 1.0;
+    private double eta = 0.0001;
+    private int maxIterations = 10000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private File checkpoint;
+    private int checkpointInterval = 10;
+
+    /* set by train */
+    private List<String> templateLines;
+    private CRFModel.Template[] unigramTemplates;
+    private CRFModel.Template[] bigramTemplates;
+    private String[] labels;
+    private int xsize;
+    private String[] features;
+    private int[] featureIds;
+    private int maxid;
+
+    /**
+     * @param cutoff the minimum number of occurrences of a feature
+     */
+    public void setCutoff(int cutoff) {
+        this.cutoff = cutoff;
+    }
+
+    /**
+     * @param cost the trade-off between fitting the corpus and the L2
+     * regularisation. Larger values fit the corpus more closely.
+     */
+    public void setCost(double cost) {
+        this.cost = cost;
+    }
+
+    /**
+     * @param eta training stops when the relative change of the objective
+     * stays below eta
+     */
+    public void setEta(double eta) {
+        this.eta = eta;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param checkpoint where the weights are saved during training, or null
+     * @param interval the number of iterations between two saves
+     */
+    public void setCheckpoint(File checkpoint, int interval) {
+        this.checkpoint = checkpoint;
+        this.checkpointInterval = Math.max(1, interval);
+    }
+
+    /**
+     * @param templateFile the CRF++ feature templates
+     * @param trainFile the training data in the crf_learn input format,
+     * with the gold label in the last column
+     * @param modelFile where the model is written
+     * @throws IOException if a file cannot be read or written, or is malformed
+     * @throws InterruptedException
+     */
+    public void train(File templateFile, File trainFile, File modelFile)
+            throws IOException, InterruptedException {
+        readTemplates(templateFile);
+        List<String[][]> corpus = readCorpus(trainFile);
+        if(corpus.isEmpty()) throw new IOException("No sentences in " + trainFile);
+
+        TreeSet<String> labelSet = new TreeSet<>();
+        for(String[][] sentence : corpus) {
+            for(String[] row : sentence) labelSet.add(row[xsize]);
+        }
+        labels = labelSet.toArray(new String[labelSet.size()]);
+
+        buildFeatures(corpus);
+        Sentence[] sentences = encode(corpus);
+        corpus = null;
+        LOGGER.log(Level.INFO, String.format("Training on %d sentences: %d labels, "
+                + "%d features, %d weights", sentences.length, labels.length,
+                features.length, maxid));
+
+        double[] weights = new double[maxid];
+        if(checkpoint != null && checkpoint.isFile() && readWeights(checkpoint, weights)) {
+            LOGGER.log(Level.INFO, "Starting from the checkpoint {0}", checkpoint);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            optimise(sentences, weights, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+        writeModel(modelFile, weights);
+        if(checkpoint != null) Files.deleteIfExists(checkpoint.toPath());
+    }
+
+    private void readTemplates(File templateFile) throws IOException {
+        templateLines = new ArrayList<>();
+        List<CRFModel.Template> unigrams = new ArrayList<>();
+        List<CRFModel.Template> bigrams = new ArrayList<>();
+        for(String line : Files.readAllLines(templateFile.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if(line.isEmpty() || line.charAt(0) == '#') continue;
+            if(line.charAt(0) == 'U') unigrams.add(new CRFModel.Template(line));
+            else if(line.charAt(0) == 'B') bigrams.add(new CRFModel.Template(line));
+            else throw new IOException("Unknown template type: " + line);
+            templateLines.add(line);
+        }
+        unigramTemplates = unigrams.toArray(new CRFModel.Template[unigrams.size()]);
+        bigramTemplates = bigrams.toArray(new CRFModel.Template[bigrams.size()]);
+    }
+
+    private List<String[][]> readCorpus(File trainFile) throws IOException {
+        List<String[][]> corpus = new ArrayList<>();
+        List<String[]> sentence = new ArrayList<>();
+        xsize = -1;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(trainFile), StandardCharsets.UTF_8))) {
+            String line;
+            while((line = in.readLine()) != null) {
+                line = line.trim();
+                if(line.isEmpty()) {
+                    if(!sentence.isEmpty()) corpus.add(sentence.toArray(new String[0][]));
+                    sentence.clear();
+                    continue;
+                }
+                String[] row = line.split("\\s+");
+                if(xsize < 0) xsize = row.length - 1;
+                if(row.length - 1 != xsize || xsize < 1) {
+                    throw new IOException("Expected " + (xsize + 1) + " columns: " + line);
+                }
+                sentence.add(row);
+            }
+        }
+        if(!sentence.isEmpty()) corpus.add(sentence.toArray(new String[0][]));
+        return corpus;
+    }
+
+    /**
+     * Counts the features of the corpus and gives an id to the ones seen at
+     * least cutoff times, in the order they are first seen. A unigram
+     * feature has one weight per label, a bigram feature one per pair.
+     */
+    private void buildFeatures(List<String[][]> corpus) {
+        Map<String, int[]> counts = new LinkedHashMap<>();
+        StringBuilder buffer = new StringBuilder(64);
+        for(String[][] sentence : corpus) {
+            List<String[]> rows = Arrays.asList(sentence);
+            for(int cur = 0; cur < sentence.length; cur++) {
+                for(CRFModel.Template template : unigramTemplates) {
+                    count(counts, template, rows, cur, buffer);
+                }
+                if(cur == 0) continue;
+                for(CRFModel.Template template : bigramTemplates) {
+                    count(counts, template, rows, cur, buffer);
+                }
+            }
+        }
+
+        List<String> kept = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        maxid = 0;
+        for(Map.Entry<String, int[]> feature : counts.entrySet()) {
+            if(feature.getValue()[0] < cutoff) continue;
+            kept.add(feature.getKey());
+            ids.add(maxid);
+            maxid += feature.getKey().charAt(0) == 'B' ? labels.length * labels.length
+                    : labels.length;
+        }
+        features = kept.toArray(new String[kept.size()]);
+        featureIds = new int[ids.size()];
+        for(int i = 0; i < featureIds.length; i++) featureIds[i] = ids.get(i);
+    }
+
+    private static void count(Map<String, int[]> counts, CRFModel.Template template,
+            List<String[]> rows, int cur, StringBuilder buffer) {
+        buffer.setLength(0);
+        template.apply(buffer, rows, cur);
+        int[] count = counts.get(buffer.toString());
+        if(count == null) counts.put(buffer.toString(), new int[]{1});
+        else count[0]++;
+    }
+
+    /**
+     * @return the sentences as the ids of their features and gold labels
+     */
+    private Sentence[] encode(List<String[][]> corpus) {
+        Map<String, Integer> index = new HashMap<>();
+        for(int i = 0; i < features.length; i++) index.put(features[i], featureIds[i]);
+        Map<String, Integer> labelIndex = new HashMap<>();
+        for(int y = 0; y < labels.length; y++) labelIndex.put(labels[y], y);
+
+        StringBuilder buffer = new StringBuilder(64);
+        Sentence[] sentences = new Sentence[corpus.size()];
+        for(int s = 0; s < sentences.length; s++) {
+            String[][] rows = corpus.get(s);
+            List<String[]> rowList = Arrays.asList(rows);
+            Sentence sentence = new Sentence(rows.length);
+            for(int cur = 0; cur < rows.length; cur++) {
+                sentence.gold[cur] = labelIndex.get(rows[cur][xsize]);
+                sentence.unigrams[cur] = lookup(unigramTemplates, index, rowList, cur, buffer);
+                sentence.bigrams[cur] = cur == 0 ? new int[0] :
+                        lookup(bigramTemplates, index, rowList, cur, buffer);
+            }
+            sentences[s] = sentence;
+        }
+        return sentences;
+    }
+
+    private static int[] lookup(CRFModel.Template[] templates, Map<String, Integer> index,
+            List<String[]> rows, int cur, StringBuilder buffer) {
+        int[] ids = new int[templates.length];
+        int n = 0;
+        for(CRFModel.Template template : templates) {
+            buffer.setLength(0);
+            template.apply(buffer, rows, cur);
+            Integer id = index.get(buffer.toString());
+            if(id != null) ids[n++] = id;
+        }
+        return n == ids.length ? ids : Arrays.copyOf(ids, n);
+    }
+
+    /**
+     * L-BFGS with a backtracking line search. It stops when the relative
+     * change of the objective stays below eta for a few iterations.
+     */
+    private void optimise(Sentence[] sentences, double[] weights, ExecutorService executor)
+            throws IOException, InterruptedException {
+        int n = weights.length;
+        double[] gradient = new double[n];
+        double[] direction = new double[n];
+        double[] next = new double[n];
+        double[] nextGradient = new double[n];
+        double[][] s = new double[HISTORY][];
+        double[][] y = new double[HISTORY][];
+        double[] rho = new double[HISTORY];
+        double[] a = new double[HISTORY];
+        int stored = 0;
+        // the next correction pair is computed here and only kept if accepted
+        double[] sk = new double[n];
+        double[] yk = new double[n];
+
+        double objective = evaluate(sentences, weights, gradient, executor);
+        int converged = 0;
+        for(int iteration = 1; iteration <= maxIterations; iteration++) {
+            // two-loop recursion: direction = -H * gradient
+            for(int i = 0; i < n; i++) direction[i] = -gradient[i];
+            for(int k = stored - 1; k >= 0; k--) {
+                a[k] = rho[k] * dot(s[k], direction);
+                axpy(-a[k], y[k], direction);
+            }
+            if(stored > 0) {
+                double scale = dot(s[stored - 1], y[stored - 1]) /
+                        dot(y[stored - 1], y[stored - 1]);
+                for(int i = 0; i < n; i++) direction[i] *= scale;
+            }
+            for(int k = 0; k < stored; k++) {
+                double b = rho[k] * dot(y[k], direction);
+                axpy(a[k] - b, s[k], direction);
+            }
+
+            double slope = dot(gradient, direction);
+            if(slope >= 0) {
+                // not a descent direction: restart from the gradient
+                stored = 0;
+                for(int i = 0; i < n; i++) direction[i] = -gradient[i];
+                slope = dot(gradient, direction);
+            }
+            if(slope == 0) break;
+
+            double step = stored == 0 ? 1 / Math.sqrt(-slope) : 1;
+            double nextObjective = Double.NaN;
+            for(int tries = 0; tries < 30; tries++) {
+                for(int i = 0; i < n; i++) next[i] = weights[i] + step * direction[i];
+                nextObjective = evaluate(sentences, next, nextGradient, executor);
+                if(nextObjective <= objective + 1e-4 * step * slope) break;
+                step /= 2;
+            }
+            if(!(nextObjective <= objective)) {
+                LOGGER.log(Level.INFO, "The line search failed at iteration {0}", iteration);
+                break;
+            }
+
+            // keep the correction pair, dropping the oldest one when full;
+            // its arrays are reused for the next pair
+            for(int i = 0; i < n; i++) {
+                sk[i] = next[i] - weights[i];
+                yk[i] = nextGradient[i] - gradient[i];
+            }
+            double sy = dot(sk, yk);
+            if(sy > 1e-10) {
+                double[] oldS = null;
+                double[] oldY = null;
+                if(stored == HISTORY) {
+                    oldS = s[0];
+                    oldY = y[0];
+                    System.arraycopy(s, 1, s, 0, HISTORY - 1);
+                    System.arraycopy(y, 1, y, 0, HISTORY - 1);
+                    System.arraycopy(rho, 1, rho, 0, HISTORY - 1);
+                    stored--;
+                }
+                s[stored] = sk;
+                y[stored] = yk;
+                rho[stored] = 1 / sy;
+                stored++;
+                sk = oldS != null ? oldS : new double[n];
+                yk = oldY != null ? oldY : new double[n];
+            }
+
+            double change = Math.abs(objective - nextObjective) / Math.max(objective, 1);
+            System.arraycopy(next, 0, weights, 0, n);
+            System.arraycopy(nextGradient, 0, gradient, 0, n);
+            objective = nextObjective;
+            LOGGER.log(Level.INFO, String.format("iter=%d obj=%.5f diff=%.5f",
+                    iteration, objective, change));
+
+            if(checkpoint != null && iteration % checkpointInterval == 0) {
+                writeCheckpoint(weights);
+            }
+            converged = change < eta ? converged + 1 : 0;
+            if(converged == CONVERGED_ITERATIONS) break;
+        }
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for(int i = 0; i < a.length; i++) sum += a[i] * b[i];
+        return sum;
+    }
+
+    private static void axpy(double alpha, double[] x, double[] y) {
+        for(int i = 0; i < x.length; i++) y[i] += alpha * x[i];
+    }
+
+    /**
+     * Computes the objective and its gradient. Each thread sums one block
+     * of sentences into its own gradient; the blocks are then added in
+     * order, so the result does not depend on the scheduling.
+     */
+    private double evaluate(Sentence[] sentences, double[] weights, double[] gradient,
+            ExecutorService executor) throws InterruptedException {
+        int blocks = Math.min(threads, sentences.length);
+        List<Future<double[]>> results = new ArrayList<>(blocks);
+        for(int b = 0; b < blocks; b++) {
+            int from = (int) ((long) sentences.length * b / blocks);
+            int to = (int) ((long) sentences.length * (b + 1) / blocks);
+            results.add(executor.submit(() -> {
+                double[] blockGradient = new double[weights.length + 1];
+                Lattice lattice = new Lattice(labels.length);
+                for(int i = from; i < to; i++) {
+                    blockGradient[weights.length] += lattice.add(sentences[i], weights,
+                            blockGradient);
+                }
+                return blockGradient;
+            }));
+        }
+
+        double objective = 0;
+        Arrays.fill(gradient, 0);
+        try {
+            for(Future<double[]> result : results) {
+                double[] blockGradient = result.get();
+                for(int i = 0; i < gradient.length; i++) gradient[i] += blockGradient[i];
+                objective += blockGradient[weights.length];
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for(Future<double[]> result : results) result.cancel(true);
+        }
+
+        for(int i = 0; i < weights.length; i++) {
+            objective += weights[i] * weights[i] / (2 * cost);
+            gradient[i] += weights[i] / cost;
+        }
+        return objective;
+    }
+
+    private void writeCheckpoint(double[] weights) throws IOException {
+        File temp = new File(checkpoint.getPath() + ".tmp");
+        writeModel(temp, weights);
+        Files.move(temp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeModel(File modelFile, double[] weights) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(modelFile), StandardCharsets.UTF_8), 1 << 16)) {
+            out.write("version: 100\ncost-factor: 1\n");
+            out.write("maxid: " + maxid + "\n");
+            out.write("xsize: " + xsize + "\n\n");
+            for(String label : labels) out.write(label + "\n");
+            out.write('\n');
+            for(String template : templateLines) out.write(template + "\n");
+            out.write('\n');
+            for(int i = 0; i < features.length; i++) {
+                out.write(featureIds[i] + " " + features[i] + "\n");
+            }
+            out.write('\n');
+            for(double weight : weights) out.write(Double.toString(weight) + "\n");
+        }
+    }
+
+    /**
+     * Copies the weights of a checkpoint if it was written for the same
+     * labels and features
+     * @return whether the weights were read
+     */
+    private boolean readWeights(File modelFile, double[] weights) throws IOException {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(modelFile), StandardCharsets.UTF_8))) {
+            List<String> header = readSection(in);
+            if(!header.contains("maxid: " + maxid) || !header.contains("xsize: " + xsize) ||
+               !readSection(in).equals(Arrays.asList(labels))) {
+                return mismatch(modelFile);
+            }
+            readSection(in); // templates
+            List<String> featureLines = readSection(in);
+            if(featureLines.size() != features.length) return mismatch(modelFile);
+            for(int i = 0; i < features.length; i++) {
+                if(!featureLines.get(i).equals(featureIds[i] + " " + features[i])) {
+                    return mismatch(modelFile);
+                }
+            }
+            List<String> values = readSection(in);
+            if(values.size() != weights.length) return mismatch(modelFile);
+            for(int i = 0; i < weights.length; i++) weights[i] = Double.parseDouble(values.get(i));
+            return true;
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed checkpoint " + modelFile, e);
+        }
+    }
+
+    private static boolean mismatch(File modelFile) {
+        LOGGER.log(Level.WARNING, "Ignoring the checkpoint {0}, it was written for "
+                + "another corpus or template", modelFile);
+        return false;
+    }
+
+    private static List<String> readSection(BufferedReader in) throws IOException {
+        List<String> lines = new ArrayList<>();
+        String line;
+        while((line = in.readLine()) != null && !line.isEmpty()) lines.add(line);
+        return lines;
+    }
+
+    /**
+     * A training sentence: for each position, the ids of its unigram and
+     * bigram features and its gold label
+     */
+    private static class Sentence {
+        final int[][] unigrams;
+        final int[][] bigrams;
+        final int[] gold;
+
+        Sentence(int size) {
+            unigrams = new int[size][];
+            bigrams = new int[size][];
+            gold = new int[size];
+        }
+    }
+
+    /**
+     * Forward-backward over one sentence at a time, with arrays reused
+     * between sentences
+     */
+    private static class Lattice {
+        private final int ysize;
+        private double[][] node = new double[0][];
+        private double[][] path = new double[0][];
+        private double[][] alpha = new double[0][];
+        private double[][] beta = new double[0][];
+        private final double[] terms;
+
+        Lattice(int ysize) {
+            this.ysize = ysize;
+            terms = new double[ysize];
+        }
+
+        /**
+         * Adds the gradient of the negative log-likelihood of the sentence
+         * @return the negative log-likelihood
+         */
+        double add(Sentence sentence, double[] weights, double[] gradient) {
+            int size = sentence.gold.length;
+            ensureCapacity(size);
+
+            for(int t = 0; t < size; t++) {
+                for(int y = 0; y < ysize; y++) {
+                    double c = 0;
+                    for(int f : sentence.unigrams[t]) c += weights[f + y];
+                    node[t][y] = c;
+                }
+                if(t == 0) continue;
+                for(int p = 0; p < ysize * ysize; p++) {
+                    double c = 0;
+                    for(int f : sentence.bigrams[t]) c += weights[f + p];
+                    path[t][p] = c;
+                }
+            }
+
+            for(int y = 0; y < ysize; y++) alpha[0][y] = node[0][y];
+            for(int t = 1; t < size; t++) {
+                for(int y = 0; y < ysize; y++) {
+                    for(int ly = 0; ly < ysize; ly++) {
+                        terms[ly] = alpha[t - 1][ly] + path[t][ly * ysize + y];
+                    }
+                    alpha[t][y] = logSumExp(terms) + node[t][y];
+                }
+            }
+            for(int y = 0; y < ysize; y++) beta[size - 1][y] = 0;
+            for(int t = size - 2; t >= 0; t--) {
+                for(int y = 0; y < ysize; y++) {
+                    for(int ry = 0; ry < ysize; ry++) {
+                        terms[ry] = path[t + 1][y * ysize + ry] + node[t + 1][ry] + beta[t + 1][ry];
+                    }
+                    beta[t][y] = logSumExp(terms);
+                }
+            }
+            double logZ = logSumExp(alpha[size - 1]);
+
+            double goldScore = 0;
+            for(int t = 0; t < size; t++) {
+                int gold = sentence.gold[t];
+                goldScore += node[t][gold];
+                for(int y = 0; y < ysize; y++) {
+                    double expected = Math.exp(alpha[t][y] + beta[t][y] - logZ);
+                    double g = expected - (y == gold ? 1 : 0);
+                    for(int f : sentence.unigrams[t]) gradient[f + y] += g;
+                }
+                if(t == 0) continue;
+                int previous = sentence.gold[t - 1];
+                goldScore += path[t][previous * ysize + gold];
+                for(int ly = 0; ly < ysize; ly++) {
+                    for(int ry = 0; ry < ysize; ry++) {
+                        int p = ly * ysize + ry;
+                        double expected = Math.exp(alpha[t - 1][ly] + path[t][p]
+                                + node[t][ry] + beta[t][ry] - logZ);
+                        double g = expected - (ly == previous && ry == gold ? 1 : 0);
+                        for(int f : sentence.bigrams[t]) gradient[f + p] += g;
+                    }
+                }
+            }
+            return logZ - goldScore;
+        }
+
+        private void ensureCapacity(int size) {
+            if(node.length >= size) return;
+            int capacity = Math.max(size, 2 * node.length);
+            node = new double[capacity][ysize];
+            path = new double[capacity][ysize * ysize];
+            alpha = new double[capacity][ysize];
+            beta = new double[capacity][ysize];
+        }
+
+        private static double logSumExp(double[] values) {
+            double max = Double.NEGATIVE_INFINITY;
+            for(double v : values) max = Math.max(max, v);
+            if(max == Double.NEGATIVE_INFINITY) return max;
+            double sum = 0;
+            for(double v : values) sum += Math.exp(v - max);
+            return max + Math.log(sum);
+        }
+    }
+
+    /**
+     * Trains a model like crf_learn:
+     *
+     * java -cp <classpath> uk.ac.wlv.rgcl.openbooksigntagger.CRFTrainer
+     *     [-f cutoff] [-c cost] [-p threads] template train model
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Options options = new Options();
+        options.addOption(Option.builder("f").longOpt("freq").argName("int").hasArg()
+                .desc("uses the features that occur at least <int> times (default 1)").build());
+        options.addOption(Option.builder("c").longOpt("cost").argName("float").hasArg()
+                .desc("sets the cost of the L2 regularisation (default 1.0)").build());
+        options.addOption(Option.builder("e").longOpt("eta").argName("float").hasArg()
+                .desc("sets the termination criterion (default 0.0001)").build());
+        options.addOption(Option.builder("m").longOpt("maxiter").argName("int").hasArg()
+                .desc("sets the maximum number of iterations (default 10000)").build());
+        options.addOption(Option.builder("p").longOpt("thread").argName("int").hasArg()
+                .desc("uses <int> threads (default: the number of processors)").build());
+        options.addOption(Option.builder("k").longOpt("checkpoint").argName("file").hasArg()
+                .desc("saves the weights in <file> every 10 iterations and resumes "
+                        + "from it").build());
+
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+            if(cmd.getArgs().length != 3) throw new ParseException("Expected 3 files");
+        } catch (ParseException ex) {
+            new HelpFormatter().printHelp("java <classpath> "
+                    + "uk.ac.wlv.rgcl.openbooksigntagger.CRFTrainer "
+                    + "[options] <template> <train file> <model>", options);
+            System.exit(-1);
+            return;
+        }
+
+        CRFTrainer trainer = new CRFTrainer();
+        trainer.setCutoff(Integer.parseInt(cmd.getOptionValue("f", "1")));
+        trainer.setCost(Double.parseDouble(cmd.getOptionValue("c", "1.0")));
+        trainer.setEta(Double.parseDouble(cmd.getOptionValue("e", "0.0001")));
+        trainer.setMaxIterations(Integer.parseInt(cmd.getOptionValue("m", "10000")));
+        if(cmd.hasOption("p")) trainer.setThreads(Integer.parseInt(cmd.getOptionValue("p")));
+        if(cmd.hasOption("k")) trainer.setCheckpoint(new File(cmd.getOptionValue("k")), 10);
+
+        String[] files = cmd.getArgs();
+        trainer.train(new File(files[0]), new File(files[1]), new File(files[2]));
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes one token per line with tab separated columns: index in the
+ * sentence, text, POS and sign label in BIO notation (B-CMV1, I-CMV1 or O).
+ * Sentences are separated by a blank line and whitespace tokens are left out.
+ * 
+ * @author dinel
+ */
+
+class ConllWriter implements DocumentWriter {
+    private final Writer output;
+    
+    private int tokens;
+    
+    /* the signs containing the next token, innermost last */
+    private final List<String> openSigns = new ArrayList<>();
+    private boolean signStarted;
+    
+    ConllWriter(Writer output) {
+        this.output = output;
+    }
+
+    @Override
+    public void beginDocument() {
+    }
+
+    @Override
+    public void endDocument(Map<String, Integer> statistics) {
+    }
+
+    @Override
+    public void beginSentence() {
+        tokens = 0;
+        openSigns.clear();
+    }
+
+    @Override
+    public void endSentence() throws IOException {
+        output.write('\n');
+    }
+
+    @Override
+    public void beginSign(String type) {
+        openSigns.add(type);
+        signStarted = true;
+    }
+
+    @Override
+    public void endSign(String type) {
+        int i = openSigns.lastIndexOf(type);
+        if(i >= 0) openSigns.remove(i);
+    }
+
+    @Override
+    public void token(String text, String pos) throws IOException {
+        if(text.trim().isEmpty()) return;
+        output.write(String.valueOf(++tokens));
+        output.write('\t');
+        output.write(text);
+        output.write('\t');
+        output.write(pos.isEmpty() ? "_" : pos);
+        output.write('\t');
+        if(openSigns.isEmpty()) {
+            output.write('O');
+        } else {
+            output.write(signStarted ? "B-" : "I-");
+            output.write(openSigns.get(openSigns.size() - 1));
+        }
+        output.write('\n');
+        signStarted = false;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+}
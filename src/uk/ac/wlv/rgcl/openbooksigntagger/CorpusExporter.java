@@ -0,0 +1,285 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Document;
+import gate.Factory;
+import gate.creole.ANNIEConstants;
+import gate.util.GateException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports the CRF++ training features of a collection of documents. The
+ * documents are tagged in parallel by a SignTagger created with
+ * ExportMode=true, and their features are handed in input order to one
+ * writer thread. The writer appends them to large buffered (optionally
+ * gzip-compressed) shards, train-00000.txt, train-00001.txt and so on,
+ * starting a new shard after a document once the current one holds
+ * shardSize characters. A document is never split between two shards.
+ *
+ * @author dinel
+ */
+
+public class CorpusExporter {
+    private static final Logger LOGGER = Logger.getLogger(CorpusExporter.class.getName());
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    /* handed to the writer after the last document */
+    private static final Result END = new Result();
+
+    private final SignTagger processor;
+    private final File outputDir;
+    private final long shardSize;
+    private final boolean gzip;
+
+    /**
+     * @param processor a SignTagger created with ExportMode=true
+     * @param outputDir where the shards are written
+     * @param shardSize the number of characters after which a new shard
+     * is started, 0 for a single shard
+     * @param gzip whether the shards are compressed
+     */
+    public CorpusExporter(SignTagger processor, File outputDir, long shardSize, boolean gzip) {
+        this.processor = processor;
+        this.outputDir = outputDir;
+        this.shardSize = shardSize <= 0 ? Long.MAX_VALUE : shardSize;
+        this.gzip = gzip;
+    }
+
+    /**
+     * Exports all the inputs and prints the throughput on stderr
+     * @param inputs
+     * @return the statistics of the export
+     * @throws IOException if a shard cannot be written
+     */
+    public Statistics export(List<File> inputs) throws IOException {
+        int threads = Math.max(1, processor.getPoolSize());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ShardWriter writer = new ShardWriter(2 * threads);
+        Thread writerThread = new Thread(writer, "signtagger-export-writer");
+        writerThread.start();
+        Statistics stats = new Statistics();
+
+        // as in BatchProcessor, a few documents per worker are in flight
+        Deque<Future<Result>> pending = new ArrayDeque<>();
+        try {
+            for(File input : inputs) {
+                pending.add(executor.submit(() -> export(input)));
+                if(pending.size() >= 2 * threads) {
+                    writer.add(next(pending.poll(), stats));
+                }
+            }
+            while(!pending.isEmpty()) {
+                writer.add(next(pending.poll(), stats));
+            }
+            writer.add(END);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writerThread.interrupt();
+            throw new IOException("Interrupted while exporting", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        if(writer.error != null) throw writer.error;
+
+        stats.shards = writer.shard;
+        stats.finish();
+        System.err.println(stats);
+        return stats;
+    }
+
+    private Result export(File input) throws GateException, IOException {
+        Document doc = Factory.newDocument(input.toURI().toURL());
+        try {
+            processor.tag(doc);
+            Result result = new Result();
+            result.features = (String) doc.getFeatures().get(SignProcessor.FEATURES_FEATURE);
+            result.tokens = doc.getAnnotations().get(
+                    ANNIEConstants.TOKEN_ANNOTATION_TYPE).size();
+            return result;
+        } finally {
+            processor.release(doc);
+        }
+    }
+
+    /**
+     * @return the result of the document, or a failed one
+     */
+    private static Result next(Future<Result> future, Statistics stats)
+            throws InterruptedException {
+        try {
+            Result result = future.get();
+            if(result.features == null) {
+                stats.failures++;
+                return null;
+            }
+            stats.documents++;
+            stats.tokens += result.tokens;
+            return result;
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.SEVERE, null, e.getCause());
+            stats.failures++;
+            return null;
+        }
+    }
+
+    private static class Result {
+        String features;
+        int tokens;
+    }
+
+    /**
+     * Writes the features handed to it, in the order they are added
+     */
+    private class ShardWriter implements Runnable {
+        private final BlockingQueue<Result> queue;
+        private final List<Result> batch = new ArrayList<>();
+        private Writer out;
+        private long written;
+        volatile int shard;
+        volatile IOException error;
+
+        ShardWriter(int capacity) {
+            queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        /**
+         * Waits while the writer is behind, so the documents in memory
+         * stay bounded. Failed documents (null) are skipped.
+         */
+        void add(Result result) throws InterruptedException, IOException {
+            if(error != null) throw error;
+            if(result != null) queue.put(result);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(true) {
+                    batch.clear();
+                    batch.add(queue.take());
+                    queue.drainTo(batch);
+                    for(Result result : batch) {
+                        if(result == END) {
+                            close();
+                            return;
+                        }
+                        write(result.features);
+                    }
+                }
+            } catch (IOException e) {
+                error = e;
+                queue.clear();
+            } catch (InterruptedException e) {
+                error = new IOException("Interrupted while writing", e);
+            } finally {
+                try {
+                    close();
+                } catch (IOException e) {
+                    if(error == null) error = e;
+                }
+            }
+        }
+
+        private void write(String features) throws IOException {
+            if(out == null) open();
+            out.write(features);
+            written += features.length();
+            if(written >= shardSize) close();
+        }
+
+        private void open() throws IOException {
+            File file = new File(outputDir, String.format("train-%05d.txt%s", shard,
+                    gzip ? ".gz" : ""));
+            OutputStream stream = new FileOutputStream(file);
+            if(gzip) stream = new GZIPOutputStream(stream, WRITE_BUFFER_SIZE);
+            out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8),
+                    WRITE_BUFFER_SIZE);
+            written = 0;
+            shard++;
+        }
+
+        private void close() throws IOException {
+            if(out == null) return;
+            Writer closing = out;
+            out = null;
+            closing.close();
+        }
+    }
+
+    /**
+     * Throughput of an export
+     */
+    public static class Statistics {
+        private final long start = System.nanoTime();
+        private long elapsed;
+        private int documents;
+        private int failures;
+        private long tokens;
+        private int shards;
+
+        void finish() {
+            elapsed = System.nanoTime() - start;
+        }
+
+        public int getDocuments() {
+            return documents;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        public int getShards() {
+            return shards;
+        }
+
+        public double getTokensPerSecond() {
+            return tokens / (elapsed / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d documents (%d failed), %d tokens exported to %d "
+                    + "shards in %.1f s: %.0f tokens/s", documents, failures, tokens,
+                    shards, elapsed / 1e9, getTokensPerSecond());
+        }
+    }
+}
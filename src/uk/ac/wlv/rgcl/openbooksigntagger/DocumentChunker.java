@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the text of a large document into chunks which can be tagged
+ * independently. A chunk ends after a paragraph break (a line break
+ * followed by a blank line) when there is one in the second half of the
+ * chunk, otherwise after the end of a sentence, so the tokeniser, the
+ * sentence splitter and the CRF model see the same context as in the whole
+ * document. The whitespace after the break stays in the earlier chunk.
+ *
+ * @author dinel
+ */
+
+class DocumentChunker {
+
+    private DocumentChunker() {
+    }
+
+    /**
+     * @param text
+     * @param chunkSize the preferred size of a chunk, in characters. A chunk
+     * is longer only when there is no break before the next one.
+     * @return the start and end offset of each chunk, covering the text
+     */
+    static List<int[]> split(String text, int chunkSize) {
+        List<int[]> chunks = new ArrayList<>();
+        int start = 0;
+        while(text.length() - start > chunkSize) {
+            int end = nextBreak(text, start, chunkSize);
+            if(end < 0) break;
+            chunks.add(new int[]{start, end});
+            start = end;
+        }
+        chunks.add(new int[]{start, text.length()});
+        return chunks;
+    }
+
+    /**
+     * @param text
+     * @param start the start of the chunk
+     * @param chunkSize the preferred size of the chunk, the text has to be
+     * longer than start + chunkSize
+     * @return the end of the chunk, or -1 if there is no break followed by
+     * more text
+     */
+    static int nextBreak(CharSequence text, int start, int chunkSize) {
+        int end = breakBefore(text, start + chunkSize / 2, start + chunkSize);
+        if(end < 0) end = breakAfter(text, start + chunkSize);
+        return end < 0 || end >= text.length() ? -1 : end;
+    }
+
+    /**
+     * @return the end of the last break between from and to, or -1
+     */
+    private static int breakBefore(CharSequence text, int from, int to) {
+        int sentence = -1;
+        for(int i = to; i > from; i--) {
+            if(isParagraphBreak(text, i)) return skipWhitespace(text, i);
+            if(sentence < 0 && isSentenceEnd(text, i)) sentence = i;
+        }
+        return sentence < 0 ? -1 : skipWhitespace(text, sentence);
+    }
+
+    /**
+     * @return the end of the first break after from, or -1
+     */
+    private static int breakAfter(CharSequence text, int from) {
+        int sentence = -1;
+        for(int i = from; i < text.length(); i++) {
+            if(isParagraphBreak(text, i)) return skipWhitespace(text, i);
+            // a paragraph break is preferred if it is not much further
+            if(sentence < 0 && isSentenceEnd(text, i)) sentence = i;
+            if(sentence >= 0 && i - sentence > 1000) break;
+        }
+        return sentence < 0 ? -1 : skipWhitespace(text, sentence);
+    }
+
+    /**
+     * @return whether a line break followed by a blank line starts at i
+     */
+    private static boolean isParagraphBreak(CharSequence text, int i) {
+        if(i >= text.length() || text.charAt(i) != '\n') return false;
+        for(int j = i + 1; j < text.length(); j++) {
+            char c = text.charAt(j);
+            if(c == '\n') return true;
+            if(!Character.isWhitespace(c)) return false;
+        }
+        return false;
+    }
+
+    /**
+     * @return whether i is whitespace which follows a sentence final
+     * punctuation mark and comes before an upper case letter
+     */
+    private static boolean isSentenceEnd(CharSequence text, int i) {
+        if(i <= 0 || i >= text.length() || !Character.isWhitespace(text.charAt(i))) return false;
+        char previous = text.charAt(i - 1);
+        if(previous != '.' && previous != '!' && previous != '?') return false;
+        int next = skipWhitespace(text, i);
+        return next < text.length() && Character.isUpperCase(text.charAt(next));
+    }
+
+    private static int skipWhitespace(CharSequence text, int i) {
+        while(i < text.length() && Character.isWhitespace(text.charAt(i))) i++;
+        return i;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Receives a tagged document as a stream of events, in document order, and
+ * writes it in one output format. Implementations write straight into a
+ * buffered Writer, without building a string per token.
+ * 
+ * @author dinel
+ */
+
+public interface DocumentWriter {
+    
+    void beginDocument() throws IOException;
+    
+    /**
+     * @param statistics the number of signs of each type in the document
+     */
+    void endDocument(Map<String, Integer> statistics) throws IOException;
+    
+    void beginSentence() throws IOException;
+    
+    void endSentence() throws IOException;
+    
+    void beginSign(String type) throws IOException;
+    
+    void endSign(String type) throws IOException;
+    
+    /**
+     * @param text the text of a Token or SpaceToken
+     * @param pos the POS category, empty for SpaceTokens
+     */
+    void token(String text, String pos) throws IOException;
+    
+    void flush() throws IOException;
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The mnodes of a document as parallel arrays: the offsets of each node and
+ * the ids of its feature values in a SymbolTable. The nodes of each
+ * sentence are listed in document order. The arrays are kept and reused by
+ * the next document, so in the steady state tagging a document allocates
+ * nothing per token for the features. After an unusually large document
+ * they are shrunk back, so a worker does not keep arrays sized for a book.
+ *
+ * @author dinel
+ */
+
+class FeatureVectors {
+
+    static final int WORD = 0;
+    static final int POS = 1;
+    static final int MARKER = 2;
+    static final int PARENT_C = 3;
+    static final int PREV_C = 4;
+    static final int SIGN_C = 5;
+    static final int NEXT_C = 6;
+    static final int TAG = 7;
+
+    /* the number of feature columns of the plain and of the syntax model */
+    static final int FEATURES = 3;
+    static final int SYNTAX_FEATURES = 7;
+
+    /* the table is emptied between documents once it holds more symbols */
+    private static final int MAX_SYMBOLS = 1 << 17;
+
+    /* the arrays larger than this are shrunk between documents */
+    private static final int MAX_KEPT_NODES = 1 << 16;
+    private static final int MAX_KEPT_SENTENCES = 1 << 12;
+    private static final int INITIAL_NODES = 1024;
+
+    private final SymbolTable symbols = new SymbolTable();
+    private int nullId;
+
+    private int size;
+    private long[] start = new long[INITIAL_NODES];
+    private long[] end = new long[INITIAL_NODES];
+    private int[][] columns = new int[TAG + 1][INITIAL_NODES];
+
+    private int sentences;
+    private int[] members = new int[INITIAL_NODES];
+    private int[] firstMember = new int[65];
+
+    private final Rows rows = new Rows();
+
+    FeatureVectors() {
+        clear();
+    }
+
+    /**
+     * Forgets the nodes and the sentences of the previous document
+     */
+    void clear() {
+        if(symbols.size() > MAX_SYMBOLS) symbols.clear();
+        if(start.length > MAX_KEPT_NODES) {
+            start = new long[INITIAL_NODES];
+            end = new long[INITIAL_NODES];
+            columns = new int[TAG + 1][INITIAL_NODES];
+        }
+        if(members.length > MAX_KEPT_NODES) members = new int[INITIAL_NODES];
+        if(firstMember.length > MAX_KEPT_SENTENCES) firstMember = new int[65];
+        rows.shrink();
+        nullId = symbols.id(null);
+        size = 0;
+        sentences = 0;
+        firstMember[0] = 0;
+    }
+
+    /**
+     * Adds a node without syntax features
+     * @return the index of the node
+     */
+    int add(long nodeStart, long nodeEnd, String word, String pos, String marker, String tag) {
+        if(size == start.length) {
+            start = Arrays.copyOf(start, 2 * size);
+            end = Arrays.copyOf(end, 2 * size);
+            for(int c = 0; c < columns.length; c++) {
+                columns[c] = Arrays.copyOf(columns[c], 2 * size);
+            }
+        }
+        start[size] = nodeStart;
+        end[size] = nodeEnd;
+        columns[WORD][size] = symbols.id(word);
+        columns[POS][size] = symbols.id(pos);
+        columns[MARKER][size] = symbols.id(marker);
+        for(int c = PARENT_C; c <= NEXT_C; c++) columns[c][size] = nullId;
+        columns[TAG][size] = symbols.id(tag);
+        return size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long start(int node) {
+        return start[node];
+    }
+
+    long end(int node) {
+        return end[node];
+    }
+
+    String get(int node, int column) {
+        return symbols.symbol(columns[column][node]);
+    }
+
+    void set(int node, int column, String value) {
+        columns[column][node] = symbols.id(value);
+    }
+
+    void setEnd(int node, long offset) {
+        end[node] = offset;
+    }
+
+    /**
+     * Copies a node over another one, used to remove nodes in place
+     */
+    void move(int from, int to) {
+        if(from == to) return;
+        start[to] = start[from];
+        end[to] = end[from];
+        for(int[] column : columns) column[to] = column[from];
+    }
+
+    /**
+     * Drops the nodes from the given index on
+     */
+    void truncate(int newSize) {
+        size = newSize;
+    }
+
+    /**
+     * Starts the list of nodes of the next sentence
+     */
+    void startSentence() {
+        if(sentences + 2 > firstMember.length) {
+            firstMember = Arrays.copyOf(firstMember, 2 * firstMember.length);
+        }
+        sentences++;
+        firstMember[sentences] = firstMember[sentences - 1];
+    }
+
+    /**
+     * Adds a node to the sentence started last
+     */
+    void addToSentence(int node) {
+        int next = firstMember[sentences];
+        if(next == members.length) members = Arrays.copyOf(members, 2 * next);
+        members[next] = node;
+        firstMember[sentences] = next + 1;
+    }
+
+    int sentences() {
+        return sentences;
+    }
+
+    int sentenceSize(int sentence) {
+        return firstMember[sentence + 1] - firstMember[sentence];
+    }
+
+    /**
+     * @return the index of the i-th node of the sentence
+     */
+    int node(int sentence, int i) {
+        return members[firstMember[sentence] + i];
+    }
+
+    /**
+     * Writes the nodes of a sentence in the crf_test input format, followed
+     * by a blank line
+     * @param features FEATURES or SYNTAX_FEATURES
+     */
+    void write(Writer out, int sentence, int features) throws IOException {
+        for(int i = 0; i < sentenceSize(sentence); i++) {
+            int node = node(sentence, i);
+            for(int c = 0; c < features; c++) {
+                out.write(symbols.symbol(columns[c][node]));
+                out.write(' ');
+            }
+            out.write(symbols.symbol(columns[TAG][node]));
+            out.write('\n');
+        }
+        out.write('\n');
+    }
+
+    /**
+     * @param features FEATURES or SYNTAX_FEATURES
+     * @return the rows of a sentence as they would be written by write. The
+     * list and its arrays are reused by the next call.
+     */
+    List<String[]> rows(int sentence, int features) {
+        rows.fill(sentence, features);
+        return rows;
+    }
+
+    private class Rows extends AbstractList<String[]> {
+        private String[][] rowArrays = new String[0][];
+        private int rowCount;
+
+        /* a very long sentence does not keep its rows */
+        void shrink() {
+            if(rowArrays.length > INITIAL_NODES) rowArrays = new String[0][];
+            rowCount = 0;
+        }
+
+        void fill(int sentence, int features) {
+            rowCount = sentenceSize(sentence);
+            if(rowCount > rowArrays.length) {
+                rowArrays = Arrays.copyOf(rowArrays, Math.max(rowCount, 2 * rowArrays.length));
+            }
+            for(int i = 0; i < rowCount; i++) {
+                String[] row = rowArrays[i];
+                if(row == null || row.length != features + 1) {
+                    row = rowArrays[i] = new String[features + 1];
+                }
+                int node = node(sentence, i);
+                for(int c = 0; c < features; c++) {
+                    row[c] = symbols.symbol(columns[c][node]);
+                }
+                row[features] = symbols.symbol(columns[TAG][node]);
+            }
+        }
+
+        @Override
+        public String[] get(int index) {
+            if(index < 0 || index >= rowCount) throw new IndexOutOfBoundsException();
+            return rowArrays[index];
+        }
+
+        @Override
+        public int size() {
+            return rowCount;
+        }
+    }
+}
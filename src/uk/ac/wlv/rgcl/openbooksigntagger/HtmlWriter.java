@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Writes the HTML fragment displayed by the web interface, followed by a
+ * script with the sign statistics
+ * 
+ * @author dinel
+ */
+
+class HtmlWriter implements DocumentWriter {
+    private final Writer output;
+    
+    HtmlWriter(Writer output) {
+        this.output = output;
+    }
+
+    @Override
+    public void beginDocument() throws IOException {
+        output.write("<div id='annotated-doc'>");
+    }
+
+    @Override
+    public void endDocument(Map<String, Integer> statistics) throws IOException {
+        output.write("</div><!--EDoc-->");
+        output.write("<script>\n");
+        output.write("var stats = [];\n");
+        for(Map.Entry<String, Integer> stat : statistics.entrySet()) {
+            output.write("stats['");
+            output.write(stat.getKey());
+            output.write("'] = '");
+            output.write(String.valueOf(stat.getValue()));
+            output.write("';\n");
+        }
+        output.write("</script>");
+    }
+
+    @Override
+    public void beginSentence() throws IOException {
+        output.write("<div class='sentence'>");
+    }
+
+    @Override
+    public void endSentence() throws IOException {
+        output.write("</div><!--ESent-->");
+    }
+
+    @Override
+    public void beginSign(String type) throws IOException {
+        output.write("<div class='sign ");
+        output.write(type);
+        output.write("'>");
+    }
+
+    @Override
+    public void endSign(String type) throws IOException {
+        output.write("</div><!--ESign-->");
+        output.write("<div class='sign-label label-");
+        output.write(type);
+        output.write("'>");
+        output.write(type);
+        output.write("</div><!--ESL-->");
+    }
+
+    @Override
+    public void token(String text, String pos) throws IOException {
+        output.write(text);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes one JSON object per sentence and per line:
+ * {"sentence":0,"tokens":[{"text":"He","pos":"PRP"},...],
+ *  "signs":[{"type":"CMV1","start":3,"end":5}]}
+ * Whitespace tokens are left out; the start and end of a sign are indexes
+ * in the tokens array, the end being exclusive.
+ * 
+ * @author dinel
+ */
+
+class JsonLinesWriter implements DocumentWriter {
+    private final Writer output;
+    
+    private int sentence;
+    private int tokens;
+    
+    /* signs of the current sentence: open ones have an end of -1 */
+    private final List<String> signTypes = new ArrayList<>();
+    private int[] signStarts = new int[16];
+    private int[] signEnds = new int[16];
+    
+    JsonLinesWriter(Writer output) {
+        this.output = output;
+    }
+
+    @Override
+    public void beginDocument() {
+        sentence = 0;
+    }
+
+    @Override
+    public void endDocument(Map<String, Integer> statistics) {
+    }
+
+    @Override
+    public void beginSentence() throws IOException {
+        tokens = 0;
+        signTypes.clear();
+        output.write("{\"sentence\":");
+        output.write(String.valueOf(sentence++));
+        output.write(",\"tokens\":[");
+    }
+
+    @Override
+    public void endSentence() throws IOException {
+        output.write("],\"signs\":[");
+        for(int i = 0; i < signTypes.size(); i++) {
+            if(i > 0) output.write(',');
+            output.write("{\"type\":");
+            string(signTypes.get(i));
+            output.write(",\"start\":");
+            output.write(String.valueOf(signStarts[i]));
+            output.write(",\"end\":");
+            output.write(String.valueOf(signEnds[i] < 0 ? tokens : signEnds[i]));
+            output.write('}');
+        }
+        output.write("]}\n");
+    }
+
+    @Override
+    public void beginSign(String type) {
+        int i = signTypes.size();
+        if(i == signStarts.length) {
+            signStarts = Arrays.copyOf(signStarts, 2 * i);
+            signEnds = Arrays.copyOf(signEnds, 2 * i);
+        }
+        signTypes.add(type);
+        signStarts[i] = tokens;
+        signEnds[i] = -1;
+    }
+
+    @Override
+    public void endSign(String type) {
+        for(int i = signTypes.size() - 1; i >= 0; i--) {
+            if(signEnds[i] < 0 && signTypes.get(i).equals(type)) {
+                signEnds[i] = tokens;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void token(String text, String pos) throws IOException {
+        if(text.trim().isEmpty()) return;
+        if(tokens++ > 0) output.write(',');
+        output.write("{\"text\":");
+        string(text);
+        output.write(",\"pos\":");
+        string(pos);
+        output.write('}');
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+    
+    private void string(String text) throws IOException {
+        output.write('"');
+        int start = 0;
+        for(int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if(c == '"' || c == '\\' || c < 0x20) {
+                output.write(text, start, i - start);
+                switch(c) {
+                    case '"': output.write("\\\""); break;
+                    case '\\': output.write("\\\\"); break;
+                    case '\n': output.write("\\n"); break;
+                    case '\r': output.write("\\r"); break;
+                    case '\t': output.write("\\t"); break;
+                    default: output.write(String.format("\\u%04x", (int) c));
+                }
+                start = i + 1;
+            }
+        }
+        output.write(text, start, text.length() - start);
+        output.write('"');
+    }
+}
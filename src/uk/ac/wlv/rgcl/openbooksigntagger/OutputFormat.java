@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.Writer;
+
+/**
+ * The formats in which SimpleSyntaxApp can write a tagged document
+ * 
+ * @author dinel
+ */
+
+public enum OutputFormat {
+    HTML("html"),
+    TXT("txt"),
+    XML("xml"),
+    JSONL("jsonl"),
+    CONLL("conll");
+    
+    private final String name;
+    
+    OutputFormat(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * @return the name used on the command line, also used as file extension
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * @param name
+     * @return the format with that name
+     * @throws IllegalArgumentException if there is no such format
+     */
+    public static OutputFormat fromName(String name) {
+        for(OutputFormat format : values()) {
+            if(format.name.equals(name)) return format;
+        }
+        throw new IllegalArgumentException("Unknown output format: " + name);
+    }
+    
+    /**
+     * @param output where the document is written, ideally buffered
+     * @return a writer for this format
+     */
+    public DocumentWriter createWriter(Writer output) {
+        switch(this) {
+            case HTML: return new HtmlWriter(output);
+            case TXT: return new TxtWriter(output);
+            case JSONL: return new JsonLinesWriter(output);
+            case CONLL: return new ConllWriter(output);
+            default: return new XmlWriter(output);
+        }
+    }
+}
@@ -54,6 +54,28 @@ public class PropertiesLoader {
             props.setProperty("GroovyScriptPath", "<set path>");
             props.setProperty("ResourcesPrefix", "<set path>");
             props.setProperty("TempPath", "<set path>");
+            props.setProperty("CRFDecoder", "java");
+            props.setProperty("CRFWrapper", "stdbuf -oL");
+            props.setProperty("SignProcessor", "groovy");
+            props.setProperty("PoolSize", 
+                    String.valueOf(Runtime.getRuntime().availableProcessors()));
+            props.setProperty("StartupThreads", 
+                    String.valueOf(Runtime.getRuntime().availableProcessors()));
+            props.setProperty("ChunkSize", "0");
+            props.setProperty("SentenceCacheSize", "0");
+            props.setProperty("SentenceCacheDir", "");
+            props.setProperty("SentenceCacheDirSize", 
+                    String.valueOf(SentenceSignCache.DEFAULT_DISK_ENTRIES));
+            props.setProperty("AsyncQueueSize", 
+                    String.valueOf(4 * Runtime.getRuntime().availableProcessors()));
+            props.setProperty("MetricsInterval", "0");
+            props.setProperty("ExportMode", "false");
+            props.setProperty("MaxSubprocesses", 
+                    String.valueOf(2 * Runtime.getRuntime().availableProcessors()));
+            props.setProperty("SubprocessTimeout", "300");
+            props.setProperty("StreamWindowSize", "65536");
+            props.setProperty("ServerQueueSize", 
+                    String.valueOf(4 * Runtime.getRuntime().availableProcessors()));
             props.store(output, null);
         }
     }
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.creole.ANNIEConstants;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The sentences, tokens and sync signs of a tagged document, sorted once
+ * into offset arrays so a document can be rendered in a single sweep
+ * instead of one annotation set query per sentence and per token.
+ *
+ * @author dinel
+ */
+
+class RenderIndex {
+    final String text;
+
+    final int sentences;
+    final long[] sentenceStart;
+    final long[] sentenceEnd;
+
+    /* Token and SpaceToken annotations, in document order */
+    final int tokens;
+    final long[] tokenStart;
+    final long[] tokenEnd;
+    final String[] tokenCategory;
+
+    /* signs in document order */
+    final int signs;
+    final long[] signStart;
+    final long[] signEnd;
+    final String[] signType;
+
+    /* sign indexes sorted by end offset, then in document order */
+    final int[] signsByEnd;
+    final long[] sortedSignEnd;
+
+    RenderIndex(Document doc) {
+        text = doc.getContent().toString();
+        AnnotationSet annSet = doc.getAnnotations();
+
+        List<Annotation> sentenceList = annSet.get(
+                ANNIEConstants.SENTENCE_ANNOTATION_TYPE).inDocumentOrder();
+        sentences = sentenceList.size();
+        sentenceStart = new long[sentences];
+        sentenceEnd = new long[sentences];
+        for(int i = 0; i < sentences; i++) {
+            sentenceStart[i] = sentenceList.get(i).getStartNode().getOffset();
+            sentenceEnd[i] = sentenceList.get(i).getEndNode().getOffset();
+        }
+
+        Set<String> tokenTypes = new HashSet<>();
+        tokenTypes.add(ANNIEConstants.TOKEN_ANNOTATION_TYPE);
+        tokenTypes.add(ANNIEConstants.SPACE_TOKEN_ANNOTATION_TYPE);
+        List<Annotation> tokenList = annSet.get(tokenTypes).inDocumentOrder();
+        tokens = tokenList.size();
+        tokenStart = new long[tokens];
+        tokenEnd = new long[tokens];
+        tokenCategory = new String[tokens];
+        for(int i = 0; i < tokens; i++) {
+            Annotation token = tokenList.get(i);
+            tokenStart[i] = token.getStartNode().getOffset();
+            tokenEnd[i] = token.getEndNode().getOffset();
+            Object category = token.getFeatures().get("category");
+            tokenCategory[i] = category != null ? category.toString() : "";
+        }
+
+        AnnotationSet namedAnnSet = doc.getNamedAnnotationSets().get("syntax");
+        List<Annotation> signList = namedAnnSet == null ?
+                Collections.<Annotation>emptyList() :
+                namedAnnSet.get("sync").inDocumentOrder();
+        signs = signList.size();
+        signStart = new long[signs];
+        signEnd = new long[signs];
+        signType = new String[signs];
+        Integer[] byEnd = new Integer[signs];
+        for(int i = 0; i < signs; i++) {
+            Annotation sign = signList.get(i);
+            signStart[i] = sign.getStartNode().getOffset();
+            signEnd[i] = sign.getEndNode().getOffset();
+            signType[i] = sign.getFeatures().get("type").toString();
+            byEnd[i] = i;
+        }
+        Arrays.sort(byEnd, (a, b) -> signEnd[a] != signEnd[b] ?
+                Long.compare(signEnd[a], signEnd[b]) : Integer.compare(a, b));
+        signsByEnd = new int[signs];
+        sortedSignEnd = new long[signs];
+        for(int i = 0; i < signs; i++) {
+            signsByEnd[i] = byEnd[i];
+            sortedSignEnd[i] = signEnd[byEnd[i]];
+        }
+    }
+
+    /**
+     * @return the first token overlapping the sentence. Tokens which start
+     * before the sentence but end inside it overlap it, like in
+     * AnnotationSet.get(start, end).
+     */
+    int firstToken(int sentence) {
+        long start = sentenceStart[sentence];
+        int first = lowerBound(tokenStart, tokens, start);
+        while(first > 0 && tokenEnd[first - 1] > start) first--;
+        return first;
+    }
+
+    /**
+     * @return the index after the last token overlapping the sentence
+     */
+    int endToken(int sentence, int firstToken) {
+        int end = firstToken;
+        while(end < tokens && tokenStart[end] < sentenceEnd[sentence]) end++;
+        return end;
+    }
+
+    /**
+     * @return the first sign (in document order) starting at offset
+     */
+    int firstSignStartingAt(long offset) {
+        return lowerBound(signStart, signs, offset);
+    }
+
+    /**
+     * @return the first position in signsByEnd of a sign ending at offset
+     */
+    int firstSignEndingAt(long offset) {
+        return lowerBound(sortedSignEnd, signs, offset);
+    }
+
+    String tokenText(int token) {
+        return text.substring((int) tokenStart[token], (int) tokenEnd[token]);
+    }
+
+    private static int lowerBound(long[] values, int size, long key) {
+        int low = 0;
+        int high = size;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(values[mid] < key) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+}
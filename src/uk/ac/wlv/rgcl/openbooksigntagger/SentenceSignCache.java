@@ -0,0 +1,324 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * The signs predicted for a sentence, keyed by a hash of the model and of
+ * the text of the sentence with its whitespace normalised. A sentence seen
+ * before gets its signs from the cache instead of from the CRF model.
+ *
+ * A value holds the predicted type of each mnode of the sentence, or null
+ * for the mnodes which are not signs, so it is independent of the offsets
+ * of the sentence. The most recently used entries are kept in memory. If a
+ * directory is given, every entry is also written there, in one file per
+ * key sharded by the first two characters of the key, so the cache
+ * survives restarts and can be shared between processes. The disk tier
+ * holds at most maxDiskEntries files: a hit read from disk touches its
+ * file, and when a write goes over the limit the least recently used files
+ * are deleted down to 90% of it.
+ *
+ * Instances are thread safe.
+ *
+ * @author dinel
+ */
+
+public class SentenceSignCache {
+    private static final Logger LOGGER = Logger.getLogger(SentenceSignCache.class.getName());
+
+    /**
+     * Default number of sentences kept on disk, about 100 MB of small files
+     */
+    public static final long DEFAULT_DISK_ENTRIES = 1 << 20;
+
+    private final String modelId;
+    private final Map<String, String[]> memory;
+    private final Path directory;
+    private final long maxDiskEntries;
+
+    /* the files in the directory, recounted by each eviction */
+    private final AtomicLong diskEntries = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param modelId identifies the model, see fingerprint
+     * @param maxEntries how many sentences are kept in memory
+     * @param directory where the entries are stored on disk, or null
+     * @throws IOException if the directory cannot be created
+     */
+    public SentenceSignCache(String modelId, final int maxEntries, Path directory)
+            throws IOException {
+        this(modelId, maxEntries, directory, DEFAULT_DISK_ENTRIES);
+    }
+
+    /**
+     * @param modelId identifies the model, see fingerprint
+     * @param maxEntries how many sentences are kept in memory
+     * @param directory where the entries are stored on disk, or null
+     * @param maxDiskEntries how many sentences are kept on disk, 0 for no
+     * limit
+     * @throws IOException if the directory cannot be created or read
+     */
+    public SentenceSignCache(String modelId, final int maxEntries, Path directory,
+            long maxDiskEntries) throws IOException {
+        this.modelId = modelId;
+        this.directory = directory;
+        this.maxDiskEntries = maxDiskEntries;
+        this.memory = new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        if(directory != null) {
+            Files.createDirectories(directory);
+            diskEntries.set(countFiles());
+        }
+    }
+
+    /**
+     * @param model a model file
+     * @return the SHA-256 of the content of the file, in hex
+     * @throws IOException
+     */
+    public static String fingerprint(File model) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream input = new FileInputStream(model)) {
+            int read;
+            while((read = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * @param sentence the text of a sentence
+     * @return the key of the sentence for the model of this cache
+     */
+    public String key(CharSequence sentence) {
+        StringBuilder normalised = new StringBuilder(modelId.length() + sentence.length() + 1);
+        normalised.append(modelId).append('\n');
+        boolean space = false;
+        for(int i = 0; i < sentence.length(); i++) {
+            char c = sentence.charAt(i);
+            if(Character.isWhitespace(c)) {
+                space = normalised.length() > modelId.length() + 1;
+            } else {
+                if(space) normalised.append(' ');
+                normalised.append(c);
+                space = false;
+            }
+        }
+        return hex(sha256().digest(normalised.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @param key
+     * @param mnodes the number of mnodes of the sentence
+     * @return the type of each mnode, null for the ones which are not signs,
+     * or null if the sentence is not in the cache
+     */
+    public String[] get(String key, int mnodes) {
+        String[] types;
+        synchronized(memory) {
+            types = memory.get(key);
+        }
+        if(types == null && directory != null) {
+            types = read(key);
+            if(types != null) {
+                synchronized(memory) {
+                    memory.put(key, types);
+                }
+            }
+        }
+
+        if(types == null || types.length != mnodes) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return types.clone();
+    }
+
+    /**
+     * @param key
+     * @param types the type of each mnode, null for the ones which are not
+     * signs
+     */
+    public void put(String key, String[] types) {
+        String[] copy = types.clone();
+        synchronized(memory) {
+            memory.put(key, copy);
+        }
+        if(directory != null) write(key, copy);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        synchronized(memory) {
+            return memory.size();
+        }
+    }
+
+    private Path file(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key.substring(2));
+    }
+
+    /* one line per mnode, empty for the ones which are not signs */
+    private String[] read(String key) {
+        try {
+            Path file = file(key);
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if(maxDiskEntries > 0) {
+                // the eviction deletes the files used least recently first
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+            String[] types = new String[lines.size()];
+            for(int i = 0; i < types.length; i++) {
+                types[i] = lines.get(i).isEmpty() ? null : lines.get(i);
+            }
+            return types;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, null, e);
+            return null;
+        }
+    }
+
+    private void write(String key, String[] types) {
+        List<String> lines = new ArrayList<>(types.length);
+        for(String type : types) {
+            lines.add(type == null ? "" : type);
+        }
+        try {
+            Path file = file(key);
+            Files.createDirectories(file.getParent());
+            // written aside and moved, so readers never see a partial file
+            Path temp = Files.createTempFile(file.getParent(), key.substring(2), ".tmp");
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            boolean added = !Files.exists(file);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            if(added && diskEntries.incrementAndGet() > maxDiskEntries && maxDiskEntries > 0) {
+                evict();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, null, e);
+        }
+    }
+
+    /**
+     * Deletes the least recently used files down to 90% of maxDiskEntries.
+     * Only one thread evicts at a time, the others keep writing.
+     */
+    private void evict() throws IOException {
+        if(!evicting.compareAndSet(false, true)) return;
+        try {
+            List<Path> files = new ArrayList<>();
+            List<Long> times = new ArrayList<>();
+            try (Stream<Path> paths = Files.walk(directory, 2)) {
+                for(Path file : (Iterable<Path>) paths.filter(SentenceSignCache::isEntry)::iterator) {
+                    try {
+                        times.add(Files.getLastModifiedTime(file).toMillis());
+                        files.add(file);
+                    } catch (NoSuchFileException e) {
+                        // deleted by another process
+                    }
+                }
+            }
+
+            Integer[] order = new Integer[files.size()];
+            for(int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> Long.compare(times.get(a), times.get(b)));
+            long keep = maxDiskEntries * 9 / 10;
+            int deleted = 0;
+            for(int i = 0; i < order.length && order.length - deleted > keep; i++) {
+                Files.deleteIfExists(files.get(order[i]));
+                deleted++;
+            }
+            diskEntries.set(order.length - deleted);
+            LOGGER.log(Level.FINE, "Evicted {0} sentences from {1}",
+                    new Object[]{deleted, directory});
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /* the files being written are not entries yet */
+    private static boolean isEntry(Path file) {
+        return Files.isRegularFile(file) && !file.getFileName().toString().endsWith(".tmp");
+    }
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory, 2)) {
+            return paths.filter(SentenceSignCache::isEntry).count();
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for(byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+               .append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
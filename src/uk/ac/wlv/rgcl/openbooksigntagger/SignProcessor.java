@@ -0,0 +1,634 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.creole.AbstractLanguageAnalyser;
+import gate.creole.ExecutionException;
+import gate.creole.metadata.CreoleParameter;
+import gate.creole.metadata.CreoleResource;
+import gate.creole.metadata.Optional;
+import gate.creole.metadata.RunTime;
+import gate.util.InvalidOffsetException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The steps of exportCRFpr.v0.7.groovy compiled as a processing resource:
+ * each Token becomes an mnode, the known signs are marked (or the gold
+ * standard signs are used in train mode), the features are exported for
+ * CRF++ and the predictions are imported as sync annotations.
+ *
+ * The sync annotations are the same as the ones produced by the script for
+ * the same parameters. It is used instead of the script when the property
+ * SignProcessor is "java". Unlike the script, it keeps the mnodes in
+ * FeatureVectors instead of annotations, except in train mode where the
+ * gold standard signs are merged as annotations first.
+ *
+ * @author dinel
+ */
+
+@CreoleResource(name = "SignTagger Sign Processor",
+        comment = "Detects signs of syntactic complexity with a CRF++ model")
+public class SignProcessor extends AbstractLanguageAnalyser {
+    private static final Logger LOGGER = Logger.getLogger(SignProcessor.class.getName());
+
+    static final String NODE_ANN = "mnode";
+    static final String SIGN_ANN = "sync";
+    static final String GOLD_AS = "Original markups";
+
+    /**
+     * The document feature which receives the features of the document
+     * when exportFeatures is true
+     */
+    public static final String FEATURES_FEATURE = "crfFeatures";
+
+    private static final Set<String> SIGNS_PUNCT = new HashSet<>(Arrays.asList(",", ";", ":"));
+    private static final Set<String> SIGNS_CONJ = new HashSet<>(Arrays.asList("and", "but",
+            "or", "that", "who", "what", "when", "where", "which", "while"));
+    /* conjunctions merged with the punctuation before them */
+    private static final Set<String> MERGED_CONJ = new HashSet<>(Arrays.asList("and", "but", "or"));
+
+    /* the script writes Groovy decimal literals, which are BigDecimals */
+    private static final BigDecimal COMPLEXITY = new BigDecimal("0.33");
+    private static final BigDecimal CONFIDENCE = new BigDecimal("0.53");
+
+    private String inputASName = "";
+    private String outputASName = "syntax";
+    private String prefix;
+    private String crfPrefix;
+    private String outFileBuffer = "out-crf-132-tmp.txt";
+    private Boolean trainMode = false;
+    private Boolean buildModel = false;
+    private Boolean predictMode = false;
+    private Boolean useSyntax = false;
+    private Boolean filesplit = false;
+    private String crfTrainer = "java";
+    private Boolean exportFeatures = false;
+    private SubprocessManager subprocessManager;
+    private CRFLabeller crfLabeller;
+    private SentenceSignCache sentenceCache;
+
+    /* reused by each document processed by this instance */
+    private final FeatureVectors nodes = new FeatureVectors();
+
+    @Override
+    public void execute() throws ExecutionException {
+        if(prefix == null) throw new ExecutionException("The prefix is not set");
+        if(crfPrefix == null) throw new ExecutionException("The path for the CRF++ not set");
+
+        String modelFile = useSyntax ? "crf-model-syntax-123" : SignTagger.MODEL_FILE;
+        String templateFile = useSyntax ? "template-crf-syntax.txt" : "template-crf.txt";
+        int features = useSyntax ? FeatureVectors.SYNTAX_FEATURES : FeatureVectors.FEATURES;
+
+        AnnotationSet inputAS = document.getAnnotations(inputASName);
+        AnnotationSet outputAS = document.getAnnotations(outputASName);
+        FeatureVectors nodes = this.nodes;
+        nodes.clear();
+        try {
+            //Step1 and 2: each Token becomes a mnode, then the gold standard
+            //signs are used or the nodes which are known signs are marked.
+            //Only train mode needs mnode annotations, to merge the gold signs.
+            if(trainMode) {
+                createNodes(inputAS, outputAS);
+                useGoldStdSigns(outputAS);
+                loadNodes(outputAS, nodes);
+            } else {
+                addTokens(inputAS, nodes);
+                detectPossibleSigns(nodes);
+            }
+
+            List<Annotation> sentences = inputAS.get("Sentence").inDocumentOrder();
+            groupBySentence(sentences, nodes);
+
+            //Step2bis: add syntactic features
+            if(useSyntax) addSyntaxFeatures(inputAS, sentences, nodes);
+
+            //Step2ter: the sentences predicted before get their signs from the cache
+            int[] pending = new int[nodes.sentences()];
+            int pendingCount = 0;
+            List<String> keys = null;
+            if(predictMode && !trainMode && sentenceCache != null) {
+                keys = new ArrayList<>();
+                for(int s = 0; s < nodes.sentences(); s++) {
+                    if(nodes.sentenceSize(s) == 0) continue;
+                    String key = sentenceCache.key(document.getContent().getContent(
+                            sentences.get(s).getStartNode().getOffset(),
+                            sentences.get(s).getEndNode().getOffset()).toString());
+                    String[] types = sentenceCache.get(key, nodes.sentenceSize(s));
+                    if(types != null) {
+                        addSigns(outputAS, nodes, s, types);
+                    } else {
+                        pending[pendingCount++] = s;
+                        keys.add(key);
+                    }
+                }
+            } else {
+                for(int s = 0; s < nodes.sentences(); s++) pending[pendingCount++] = s;
+            }
+            pending = Arrays.copyOf(pending, pendingCount);
+
+            //Step3: print mnode features in CRF++ format
+            String filePath = outFileBuffer;
+            if(filesplit) {
+                filePath = filePath + "-" + corpus.getName() + "-" + document.getName() + ".txt";
+            }
+            if(exportFeatures) {
+                StringWriter out = new StringWriter();
+                for(int s : pending) nodes.write(out, s, features);
+                document.getFeatures().put(FEATURES_FEATURE, out.toString());
+            } else if(trainMode || crfLabeller == null) {
+                writeFeaturesToFile(filePath, nodes, pending, features, filesplit);
+            }
+
+            //Step3bis: build new model
+            if(trainMode && buildModel) buildModel(templateFile);
+
+            //Step4: make predictions
+            if(predictMode && pending.length > 0) {
+                if(crfLabeller != null) {
+                    addPredictionsInProcess(outputAS, nodes, pending, keys, features);
+                } else {
+                    addPredictions(outputAS, nodes, pending, keys, modelFile);
+                }
+            }
+        } catch (IOException | InvalidOffsetException e) {
+            throw new ExecutionException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e);
+        } finally {
+            //Step7: cleanup mnodes and the temp file
+            AnnotationSet mnodes = outputAS.get(NODE_ANN);
+            if(!mnodes.isEmpty()) outputAS.removeAll(new ArrayList<>(mnodes));
+            File tempFile = new File(outFileBuffer);
+            if(tempFile.exists()) tempFile.delete();
+            //shrinks the arrays after a large document
+            nodes.clear();
+        }
+    }
+
+    /**
+     * Train mode: each Token becomes a mnode annotation, so the gold
+     * standard signs can replace the nodes they cover
+     */
+    private void createNodes(AnnotationSet inputAS, AnnotationSet outputAS)
+            throws InvalidOffsetException {
+        for(Annotation token : inputAS.get("Token")) {
+            FeatureMap features = Factory.newFeatureMap();
+            features.put("tag", "NA");
+            features.put("marker", "M:N");
+            features.put("word", token.getFeatures().get("string"));
+            features.put("pos", token.getFeatures().get("category"));
+            outputAS.add(token.getStartNode().getOffset(), token.getEndNode().getOffset(),
+                    NODE_ANN, features);
+        }
+    }
+
+    private void useGoldStdSigns(AnnotationSet outputAS) throws InvalidOffsetException {
+        AnnotationSet goldAS = document.getAnnotations(GOLD_AS);
+        AnnotationSet signs = goldAS.get(SIGN_ANN);
+        //workaround if input is PC instead of sync
+        if(signs.isEmpty()) {
+            for(Annotation sign : goldAS.get("PC")) {
+                FeatureMap features = Factory.newFeatureMap();
+                features.put("id", sign.getFeatures().get("ID"));
+                features.put("type", sign.getFeatures().get("TYPE"));
+                goldAS.add(sign.getStartNode().getOffset(), sign.getEndNode().getOffset(),
+                        SIGN_ANN, features);
+            }
+            signs = goldAS.get(SIGN_ANN);
+        }
+
+        for(Annotation sign : signs) {
+            Long start = sign.getStartNode().getOffset();
+            Long end = sign.getEndNode().getOffset();
+            List<Annotation> nodes = outputAS.get(NODE_ANN, start, end).inDocumentOrder();
+            outputAS.removeAll(nodes);
+            if(nodes.isEmpty()) continue;
+
+            FeatureMap features = Factory.newFeatureMap();
+            features.put("marker", "M:Y");
+            features.put("tag", sign.getFeatures().get("type"));
+            features.put("word", document.getContent().getContent(start, end)
+                    .toString().replaceAll(" ", ""));
+            features.put("pos", nodes.get(nodes.size() - 1).getFeatures().get("pos"));
+            outputAS.add(start, end, NODE_ANN, features);
+        }
+    }
+
+    /**
+     * Copies the mnode annotations to the feature vectors and removes them
+     */
+    private static void loadNodes(AnnotationSet outputAS, FeatureVectors nodes) {
+        List<Annotation> mnodes = outputAS.get(NODE_ANN).inDocumentOrder();
+        for(Annotation m : mnodes) {
+            FeatureMap features = m.getFeatures();
+            nodes.add(m.getStartNode().getOffset(), m.getEndNode().getOffset(),
+                    string(features.get("word")), string(features.get("pos")),
+                    string(features.get("marker")), string(features.get("tag")));
+        }
+        outputAS.removeAll(new ArrayList<>(mnodes));
+    }
+
+    /**
+     * Predict mode: each Token becomes a node of the feature vectors,
+     * without an mnode annotation
+     */
+    private static void addTokens(AnnotationSet inputAS, FeatureVectors nodes) {
+        for(Annotation token : inputAS.get("Token").inDocumentOrder()) {
+            FeatureMap features = token.getFeatures();
+            nodes.add(token.getStartNode().getOffset(), token.getEndNode().getOffset(),
+                    string(features.get("string")), string(features.get("category")),
+                    "M:N", "NA");
+        }
+    }
+
+    private static String string(Object feature) {
+        return feature == null ? null : feature.toString();
+    }
+
+    /**
+     * Marks the known signs as M:Y UKN and merges punctuation followed by
+     * and/but/or into one node. The nodes are compacted in place.
+     */
+    private static void detectPossibleSigns(FeatureVectors nodes) {
+        int size = nodes.size();
+        int kept = 0;
+        for(int i = 0; i < size; i++) {
+            String word = nodes.get(i, FeatureVectors.WORD);
+            nodes.move(i, kept);
+            if(SIGNS_PUNCT.contains(word) && i + 1 < size) {
+                String nextWord = nodes.get(i + 1, FeatureVectors.WORD).toLowerCase();
+                if(MERGED_CONJ.contains(nextWord)) {
+                    nodes.setEnd(kept, nodes.end(i + 1));
+                    nodes.set(kept, FeatureVectors.WORD, word + nextWord);
+                    nodes.set(kept, FeatureVectors.POS, nodes.get(i + 1, FeatureVectors.POS));
+                    i++;
+                }
+            }
+            if(SIGNS_PUNCT.contains(word) || SIGNS_CONJ.contains(word)) {
+                nodes.set(kept, FeatureVectors.MARKER, "M:Y");
+                nodes.set(kept, FeatureVectors.TAG, "UKN");
+            }
+            kept++;
+        }
+        nodes.truncate(kept);
+    }
+
+    /**
+     * Lists the nodes contained in each sentence. The nodes are in document
+     * order, so each sentence is found with a binary search.
+     */
+    private static void groupBySentence(List<Annotation> sentences, FeatureVectors nodes) {
+        int size = nodes.size();
+        for(Annotation sentence : sentences) {
+            long start = sentence.getStartNode().getOffset();
+            long end = sentence.getEndNode().getOffset();
+            int low = 0;
+            int high = size;
+            while(low < high) {
+                int mid = (low + high) >>> 1;
+                if(nodes.start(mid) < start) low = mid + 1;
+                else high = mid;
+            }
+
+            nodes.startSentence();
+            for(int i = low; i < size && nodes.start(i) <= end; i++) {
+                if(nodes.end(i) <= end) nodes.addToSentence(i);
+            }
+        }
+    }
+
+    private void addSyntaxFeatures(AnnotationSet inputAS, List<Annotation> sentences,
+            FeatureVectors nodes) {
+        AnnotationSet syntaxNodes = inputAS.get("SyntaxTreeNode");
+        for(int s = 0; s < sentences.size(); s++) {
+            Annotation sentence = sentences.get(s);
+            SyntaxFeatureIndex index = new SyntaxFeatureIndex(syntaxNodes.getContained(
+                    sentence.getStartNode().getOffset(), sentence.getEndNode().getOffset()));
+            for(int i = 0; i < nodes.sentenceSize(s); i++) {
+                int node = nodes.node(s, i);
+                Object[] features = index.features(nodes.start(node), nodes.end(node));
+                if(features == null) continue;
+                for(int f = 0; f < features.length; f++) {
+                    nodes.set(node, FeatureVectors.PARENT_C + f, string(features[f]));
+                }
+            }
+        }
+    }
+
+    private static void writeFeaturesToFile(String filePath, FeatureVectors nodes,
+            int[] sentences, int features, boolean append) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(filePath, append))) {
+            for(int s : sentences) {
+                nodes.write(out, s, features);
+            }
+        }
+    }
+
+    private void buildModel(String templateFile) throws IOException, InterruptedException {
+        String modelFile = outFileBuffer.replace(".txt", ".model");
+        if("java".equals(crfTrainer)) {
+            CRFTrainer trainer = new CRFTrainer();
+            trainer.setCutoff(3);
+            trainer.setCheckpoint(new File(prefix + "resources/" + modelFile + ".checkpoint"), 10);
+            trainer.train(new File(prefix + "resources/" + templateFile), new File(outFileBuffer),
+                    new File(prefix + "resources/" + modelFile));
+            return;
+        }
+
+        // crf_learn can take hours, so it has no deadline
+        File crfLearn = new File(crfPrefix + "crf_learn");
+        subprocesses().checkBinary(crfLearn);
+        subprocesses().run(Arrays.asList(crfLearn.getPath(), "-f", "3",
+                prefix + "resources/" + templateFile, outFileBuffer,
+                prefix + "resources/" + modelFile), 0, (in) -> {
+            String line;
+            while((line = in.readLine()) != null) {
+                LOGGER.log(Level.FINE, "crf_learn: {0}", line);
+            }
+        });
+    }
+
+    private void addPredictions(AnnotationSet outputAS, FeatureVectors nodes, int[] sentences,
+            List<String> keys, String modelFile) throws IOException, InterruptedException, InvalidOffsetException {
+        File crfTest = new File(crfPrefix + "crf_test");
+        subprocesses().checkBinary(crfTest);
+        List<String[]> predictions = new ArrayList<>(sentences.length);
+
+        //Step5: import predictions
+        subprocesses().run(Arrays.asList(crfTest.getPath(), "-m", prefix + modelFile,
+                outFileBuffer), (in) -> {
+            for(int s : sentences) {
+                String[] types = new String[nodes.sentenceSize(s)];
+                for(int i = 0; i < types.length; i++) {
+                    String line = in.readLine();
+                    if(line != null && line.contains("M:Y")) {
+                        String[] columns = line.trim().split("\\s+");
+                        types[i] = columns[columns.length - 1];
+                    }
+                }
+                in.readLine(); //should be blank line between sentences
+                predictions.add(types);
+            }
+        });
+
+        for(int p = 0; p < sentences.length; p++) {
+            addSigns(outputAS, nodes, sentences[p], predictions.get(p));
+            if(keys != null) sentenceCache.put(keys.get(p), predictions.get(p));
+        }
+    }
+
+    private SubprocessManager subprocesses() {
+        return subprocessManager != null ? subprocessManager : SubprocessManager.getDefault();
+    }
+
+    /**
+     * Same as addPredictions, but each sentence is labelled by crfLabeller
+     * with the rows that would have been written to the crf_test input file
+     */
+    private void addPredictionsInProcess(AnnotationSet outputAS, FeatureVectors nodes,
+            int[] sentences, List<String> keys, int features)
+            throws IOException, InvalidOffsetException {
+        for(int p = 0; p < sentences.length; p++) {
+            int s = sentences[p];
+            if(nodes.sentenceSize(s) == 0) continue;
+
+            List<String[]> rows = nodes.rows(s, features);
+            String[] predictions = crfLabeller.label(rows);
+            String[] types = new String[rows.size()];
+            for(int i = 0; i < types.length; i++) {
+                if(isSign(rows.get(i))) types[i] = predictions[i];
+            }
+            addSigns(outputAS, nodes, s, types);
+            if(keys != null) sentenceCache.put(keys.get(p), types);
+        }
+    }
+
+    private static boolean isSign(String[] row) {
+        for(String column : row) {
+            if(column.contains("M:Y")) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param types the type of the sign on each node of the sentence, or null
+     */
+    private static void addSigns(AnnotationSet outputAS, FeatureVectors nodes, int sentence,
+            String[] types) throws InvalidOffsetException {
+        for(int i = 0; i < types.length; i++) {
+            if(types[i] == null) continue;
+            int node = nodes.node(sentence, i);
+            FeatureMap features = Factory.newFeatureMap();
+            features.put("type", types[i]);
+            features.put("pos", nodes.get(node, FeatureVectors.POS));
+            features.put("complexity", COMPLEXITY);
+            features.put("confidence", CONFIDENCE);
+            outputAS.add(nodes.start(node), nodes.end(node), SIGN_ANN, features);
+        }
+    }
+
+    public String getInputASName() {
+        return inputASName;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "The annotation set with the ANNIE annotations",
+            defaultValue = "")
+    public void setInputASName(String inputASName) {
+        this.inputASName = inputASName;
+    }
+
+    public String getOutputASName() {
+        return outputASName;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "The annotation set where the signs are added",
+            defaultValue = "syntax")
+    public void setOutputASName(String outputASName) {
+        this.outputASName = outputASName;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    @RunTime
+    @CreoleParameter(comment = "The directory with the models and the templates")
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public String getCrfPrefix() {
+        return crfPrefix;
+    }
+
+    @RunTime
+    @CreoleParameter(comment = "The directory with crf_test and crf_learn")
+    public void setCrfPrefix(String crfPrefix) {
+        this.crfPrefix = crfPrefix;
+    }
+
+    public String getOutFileBuffer() {
+        return outFileBuffer;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "The file where the features are written",
+            defaultValue = "out-crf-132-tmp.txt")
+    public void setOutFileBuffer(String outFileBuffer) {
+        this.outFileBuffer = outFileBuffer;
+    }
+
+    public Boolean getTrainMode() {
+        return trainMode;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Use the gold standard signs from Original markups",
+            defaultValue = "false")
+    public void setTrainMode(Boolean trainMode) {
+        this.trainMode = trainMode;
+    }
+
+    public Boolean getBuildModel() {
+        return buildModel;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Train a new model in train mode",
+            defaultValue = "false")
+    public void setBuildModel(Boolean buildModel) {
+        this.buildModel = buildModel;
+    }
+
+    public Boolean getPredictMode() {
+        return predictMode;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Add the signs predicted by the model",
+            defaultValue = "false")
+    public void setPredictMode(Boolean predictMode) {
+        this.predictMode = predictMode;
+    }
+
+    public Boolean getUseSyntax() {
+        return useSyntax;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Use the syntax model, which needs SyntaxTreeNode annotations",
+            defaultValue = "false")
+    public void setUseSyntax(Boolean useSyntax) {
+        this.useSyntax = useSyntax;
+    }
+
+    public Boolean getFilesplit() {
+        return filesplit;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Append the features of each document to its own file",
+            defaultValue = "false")
+    public void setFilesplit(Boolean filesplit) {
+        this.filesplit = filesplit;
+    }
+
+    public String getCrfTrainer() {
+        return crfTrainer;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "How the model is built: java (CRFTrainer, text model) "
+            + "or crf_learn", defaultValue = "java")
+    public void setCrfTrainer(String crfTrainer) {
+        this.crfTrainer = crfTrainer;
+    }
+
+    public Boolean getExportFeatures() {
+        return exportFeatures;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Store the features as the crfFeatures document feature "
+            + "instead of writing them to outFileBuffer", defaultValue = "false")
+    public void setExportFeatures(Boolean exportFeatures) {
+        this.exportFeatures = exportFeatures;
+    }
+
+    public SentenceSignCache getSentenceCache() {
+        return sentenceCache;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "The signs of the sentences predicted before")
+    public void setSentenceCache(SentenceSignCache sentenceCache) {
+        this.sentenceCache = sentenceCache;
+    }
+
+    public SubprocessManager getSubprocessManager() {
+        return subprocessManager;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Runs crf_test and crf_learn, the default manager if not set")
+    public void setSubprocessManager(SubprocessManager subprocessManager) {
+        this.subprocessManager = subprocessManager;
+    }
+
+    public CRFLabeller getCrfLabeller() {
+        return crfLabeller;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Labels the sentences in process instead of crf_test")
+    public void setCrfLabeller(CRFLabeller crfLabeller) {
+        this.crfLabeller = crfLabeller;
+    }
+}
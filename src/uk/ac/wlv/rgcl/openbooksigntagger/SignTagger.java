@@ -16,21 +16,52 @@
 
 package uk.ac.wlv.rgcl.openbooksigntagger;
 
+import gate.Annotation;
+import gate.AnnotationSet;
 import gate.Corpus;
 import gate.CorpusController;
+import gate.CreoleRegister;
 import gate.Document;
 import gate.Factory;
 import gate.FeatureMap;
 import gate.Gate;
+import gate.GateConstants;
 import gate.ProcessingResource;
+import gate.Resource;
+import gate.corpora.DocumentContentImpl;
+import gate.creole.ANNIEConstants;
 import gate.creole.ResourceInstantiationException;
-import gate.creole.SerialAnalyserController;
 import gate.util.GateException;
+import gate.util.InvalidOffsetException;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Stream;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -47,62 +78,675 @@ public class SignTagger  {
     /**
      * A pool of workers
      */
-    private BlockingQueue<CorpusController> pool;
+    private BlockingQueue<Worker> pool;
 
     /**
-     * This allows up to 1 working threads
-     * Initially it was 2, but not necessary as we do not run in a webapp
+     * All the workers created, idle or not
      */
-    final private int POOL_SIZE = 1;
+    private final List<Worker> workers = new ArrayList<>();
 
-    public SignTagger(Properties props) {
+    /**
+     * Number of documents which can be processed in parallel. It is read
+     * from the PoolSize property and defaults to the number of cores.
+     */
+    private int poolSize;
+
+    /**
+     * The model used by the Groovy script when useSyntax=false
+     */
+    static final String MODEL_FILE = "crf-model-tmp-123";
+
+    /**
+     * How the CRF++ model is applied, from the CRFDecoder property:
+     * "java" decodes it in the JVM, "coprocess" keeps one crf_test process
+     * per worker and "file" runs crf_test on a temporary file per document
+     */
+    private String decoder;
+
+    /**
+     * The CRF++ model decoded in the JVM, shared by all the workers. It is
+     * only loaded in "java" mode.
+     */
+    private CRFModel crfModel;
+
+    /**
+     * Which implementation adds the signs, from the SignProcessor property:
+     * "groovy" runs exportCRFpr.v0.7.groovy in a ScriptPR and "java" runs
+     * the compiled SignProcessor
+     */
+    private String signProcessor;
+
+    /**
+     * From the ExportMode property: the workers export the training
+     * features of the gold standard signs (Original markups) as the
+     * crfFeatures document feature instead of predicting signs. It uses
+     * the Java sign processor and no model.
+     */
+    private boolean exportMode;
+
+    /**
+     * Runs crf_test and crf_learn for all the workers. At most
+     * MaxSubprocesses (twice the pool size by default) run at once, and a
+     * call which takes more than SubprocessTimeout seconds (300 by default)
+     * is killed.
+     */
+    private SubprocessManager subprocesses;
+
+    /**
+     * Counters and timings of all the workers
+     */
+    private final SignTaggerMetrics metrics = new SignTaggerMetrics();
+
+    /**
+     * Signs of the sentences seen before, shared by all the workers. It is
+     * only created when SentenceCacheSize is positive and only used by the
+     * Java sign processor.
+     */
+    private SentenceSignCache sentenceCache;
+
+    /**
+     * Documents longer than this number of characters are split into
+     * chunks tagged in parallel, from the ChunkSize property. 0 turns
+     * chunking off.
+     */
+    private int chunkSize;
+
+    /**
+     * Runs the chunks of large documents, created with the first one
+     */
+    private ExecutorService chunkExecutor;
+
+    /**
+     * Runs the documents submitted asynchronously, created with the first one
+     */
+    private ExecutorService asyncExecutor;
+
+    /**
+     * Documents submitted asynchronously and not finished, bounded by the
+     * AsyncQueueSize property
+     */
+    private Semaphore pending;
+
+    /**
+     * The results of the documents submitted and not finished, failed by
+     * destroy as their tasks may never run
+     */
+    private final Set<CompletableFuture<Document>> submitted = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Fails the asynchronous results which take too long
+     */
+    private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(
+            (r) -> {
+                Thread thread = new Thread(r, "signtagger-timeouts");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * @param props
+     * @throws GateException if the workers cannot be created
+     * @throws IOException if a binary, the model or a scratch directory
+     * cannot be used; a SubprocessException for crf_test and its wrapper
+     */
+    public SignTagger(Properties props) throws GateException, IOException {
         init(props);
     }
 
     /**
      * Creates the Gate application workers
      * Assumes Gate.init()! 
+     * @throws GateException
+     * @throws IOException if the tagger cannot start; what it had created
+     * is released and it cannot be used
      */
-    public void init(Properties props) {
+    public void init(Properties props) throws GateException, IOException {
         if (pool != null)return;
         pool = new LinkedBlockingQueue<>();
+        boolean ready = false;
         try {
-            for(int i = 0; i < POOL_SIZE; i++) {
-                    pool.add(loadController(props));
+            registerComponents();
+            exportMode = Boolean.parseBoolean(props.getProperty("ExportMode", "false"));
+            signProcessor = exportMode ? "java" : props.getProperty("SignProcessor", "groovy");
+            decoder = props.getProperty("CRFDecoder", "java");
+            if("java".equals(decoder) && !exportMode) {
+                crfModel = loadModel(modelFile(props));
+            }
+            poolSize = Integer.parseInt(props.getProperty("PoolSize",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            subprocesses = new SubprocessManager(
+                    Integer.parseInt(props.getProperty("MaxSubprocesses",
+                            String.valueOf(2 * poolSize))),
+                    1000 * Long.parseLong(props.getProperty("SubprocessTimeout", "300")));
+            metrics.registerGauge("subprocesses.active", subprocesses::getActiveProcesses);
+            if(!exportMode && ("coprocess".equals(decoder) || "file".equals(decoder))) {
+                //fail at start-up rather than on the first document
+                subprocesses.checkBinary(new File(
+                        PropertiesLoader.addFinalSlash(props.getProperty("CRFPath")) + "crf_test"));
+            }
+            String wrapper = props.getProperty("CRFWrapper", "stdbuf -oL").trim();
+            if(!exportMode && "coprocess".equals(decoder) && !wrapper.isEmpty()) {
+                //stdbuf is not available on macOS and BSD
+                subprocesses.checkCommand(wrapper.split("\\s+")[0]);
+            }
+            //the features of the chunks would not be merged
+            chunkSize = exportMode ? 0 : Integer.parseInt(props.getProperty("ChunkSize", "0"));
+            pending = new Semaphore(Integer.parseInt(props.getProperty("AsyncQueueSize",
+                    String.valueOf(4 * poolSize))));
+            sentenceCache = createSentenceCache(props);
+            createWorkers(props);
+            //MetricsInterval is in seconds, 0 turns the periodic log off
+            metrics.startReporter(Long.parseLong(props.getProperty("MetricsInterval", "0")));
+            ready = true;
+        } finally {
+            //a tagger without workers would wait for ever on the first document
+            if(!ready) destroy();
+        }
+    }
+
+    /**
+     * Loads the first worker's application and duplicates it for the other
+     * workers, on StartupThreads threads (the number of cores by default).
+     * GATE shares between the copies the resources of the PRs which support
+     * it, and the CRF model is shared anyway.
+     */
+    private void createWorkers(Properties props) throws GateException, IOException {
+        long start = System.nanoTime();
+        Worker template = createWorker(props, null);
+        workers.add(template);
+        pool.add(template);
+        if(poolSize <= 1) return;
+
+        int threads = Integer.parseInt(props.getProperty("StartupThreads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        ExecutorService starter = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(poolSize - 1, threads)));
+        List<Future<Worker>> copies = new ArrayList<>();
+        boolean ready = false;
+        try {
+            for(int i = 1; i < poolSize; i++) {
+                copies.add(starter.submit(() -> createWorker(props, template.controller)));
+            }
+            for(Future<Worker> copy : copies) {
+                Worker worker = copy.get();
+                workers.add(worker);
+                pool.add(worker);
+            }
+            ready = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GateException("Interrupted while creating the workers");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof GateException) throw (GateException) e.getCause();
+            if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new GateException(e.getCause());
+        } finally {
+            if(!ready) destroyCopies(copies);
+            starter.shutdown();
+        }
+        Logger.getLogger(SignTagger.class.getName()).log(Level.INFO, 
+                "{0} workers ready in {1} ms", new Object[]{
+                    poolSize, (System.nanoTime() - start) / 1000000});
+    }
+
+    /**
+     * @param template the application to duplicate, or null to load it
+     * @return a worker with its application and corpus
+     */
+    private Worker createWorker(Properties props, CorpusController template)
+            throws GateException, IOException {
+        long start = System.nanoTime();
+        Worker worker = new Worker(createScratchDir(props));
+        try {
+            worker.controller = template == null ? loadController(props, worker) :
+                    duplicateController(template, props, worker);
+            worker.corpus = Factory.newCorpus("SignTagger worker corpus");
+            worker.controller.setCorpus(worker.corpus);
+        } catch (GateException | IOException | RuntimeException e) {
+            worker.destroy();
+            throw e;
+        }
+
+        long nanos = System.nanoTime() - start;
+        metrics.recordStage(template == null ? "worker.load" : "worker.duplicate", nanos);
+        Logger.getLogger(SignTagger.class.getName()).log(Level.INFO, 
+                "Worker {0} {1} in {2} ms", new Object[]{worker.scratchDir.getFileName(),
+                    template == null ? "loaded" : "duplicated", nanos / 1000000});
+        return worker;
+    }
+
+    /**
+     * Releases the copies which were not added to the workers after one of
+     * them could not be created: the copies which have not started are
+     * cancelled, the others are waited for. The workers themselves are
+     * destroyed by init, which then throws, so no tagger is left without
+     * workers.
+     */
+    private void destroyCopies(List<Future<Worker>> copies) {
+        for(Future<Worker> copy : copies) copy.cancel(false);
+        boolean interrupted = Thread.interrupted();
+        for(Future<Worker> copy : copies) {
+            if(copy.isCancelled()) continue;
+            while(true) {
+                try {
+                    Worker worker = copy.get();
+                    if(!workers.contains(worker)) worker.destroy();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    // createWorker released what it had created
+                    break;
+                }
+            }
+        }
+        if(interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Duplicates a worker's application and gives the copy of the sign
+     * processor this worker's own temp file and labeller
+     */
+    private CorpusController duplicateController(CorpusController template, Properties props,
+            Worker worker) throws ResourceInstantiationException {
+        CorpusController application = (CorpusController) Factory.duplicate(template);
+        if(application instanceof TimedAnalyserController) {
+            ((TimedAnalyserController) application).setMetrics(metrics);
+        }
+
+        for(ProcessingResource pr : application.getPRs()) {
+            if(pr instanceof SignProcessor) {
+                SignProcessor signs = (SignProcessor) pr;
+                signs.setOutFileBuffer(worker.scratchDir.resolve("out-crf-tmp.txt").toString());
+                signs.setCrfLabeller(workerLabeller(props, worker));
+            } else if("gate.groovy.ScriptPR".equals(pr.getClass().getName())) {
+                // the copy would share the template's parameters map
+                pr.setParameterValue("scriptParams", scriptParams(props, worker));
+            }
+        }
+        return application;
+    }
+
+    /**
+     * @return the cache configured by SentenceCacheSize (entries kept in
+     * memory), SentenceCacheDir (optional disk tier) and SentenceCacheDirSize
+     * (entries kept on disk, 0 for no limit), or null
+     */
+    private SentenceSignCache createSentenceCache(Properties props) throws IOException {
+        int size = Integer.parseInt(props.getProperty("SentenceCacheSize", "0"));
+        if(size <= 0) return null;
+        if(!"java".equals(signProcessor)) {
+            Logger.getLogger(SignTagger.class.getName()).log(Level.WARNING,
+                    "The sentence cache needs SignProcessor=java, it is not used");
+            return null;
+        }
+
+        String dir = props.getProperty("SentenceCacheDir", "");
+        SentenceSignCache cache = new SentenceSignCache(
+                SentenceSignCache.fingerprint(modelFile(props)), size,
+                dir.isEmpty() ? null : Paths.get(dir),
+                Long.parseLong(props.getProperty("SentenceCacheDirSize",
+                        String.valueOf(SentenceSignCache.DEFAULT_DISK_ENTRIES))));
+        metrics.registerGauge("sentenceCache.hits", cache::getHits);
+        metrics.registerGauge("sentenceCache.misses", cache::getMisses);
+        metrics.registerGauge("sentenceCache.size", cache::size);
+        return cache;
+    }
+
+    /**
+     * Registers the resources of this package with CREOLE, once per JVM
+     */
+    static synchronized void registerComponents() throws GateException {
+        CreoleRegister register = Gate.getCreoleRegister();
+        for(Class<? extends Resource> component : Arrays.asList(
+                TimedAnalyserController.class, SignProcessor.class)) {
+            if(!register.containsKey(component.getName())) {
+                register.registerComponent(component);
             }
-        } catch (GateException | IOException e) {
-            Logger.getLogger(SignTagger.class.getName()).log(Level.SEVERE, null, e);
         }
     }
 
+    /**
+     * Releases the workers, their GATE resources, processes and scratch
+     * directories. The tagger cannot be used afterwards.
+     */
     public void destroy() {
-        pool.stream().forEach((c) -> {
-            Factory.deleteResource(c);
+        metrics.stopReporter();
+        // the tasks still queued are dropped by shutdownNow, nobody would
+        // complete their results; cancelling them also returns their permits
+        for(CompletableFuture<Document> result : submitted) result.cancel(true);
+        synchronized(this) {
+            if(chunkExecutor != null) chunkExecutor.shutdownNow();
+            if(asyncExecutor != null) asyncExecutor.shutdownNow();
+        }
+        timeouts.shutdownNow();
+        workers.stream().forEach((w) -> {
+            w.destroy();
         });
+        workers.clear();
+        pool.clear();
+        if(subprocesses != null) subprocesses.close();
     }
 
+    /**
+     * Deletes a document created to be tagged, with its annotations. GATE
+     * keeps every document created until it is deleted, so a long running
+     * application must release each document once it is done with it.
+     * @param doc the document, which can be null
+     */
+    public void release(Document doc) {
+        if(doc != null) Factory.deleteResource(doc);
+    }
+
+    /**
+     * @return the number of documents which can be processed in parallel
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * @return the counters and timings collected since the tagger was created
+     */
+    public SignTaggerMetrics getMetrics() {
+        return metrics;
+    }
 
     Document process(Document doc) {
         Document d = null;
         try {
-            d = processGate(doc);
+            d = tag(doc);
         } catch (GateException | IOException e) {
-            Logger.getLogger(SignTagger.class.getName()).log(Level.SEVERE, null, e);
+            SubprocessException failure = SubprocessException.find(e);
+            Logger.getLogger(SignTagger.class.getName()).log(Level.SEVERE,
+                    failure != null ? failure.getMessage() : null, e);
         }
         return d;
     }
 
+    /**
+     * Tags a document on the calling thread
+     * @return the document
+     * @throws GateException if the document cannot be tagged, or the
+     * thread was interrupted while waiting for a worker
+     * @throws IOException
+     */
+    Document tag(Document doc) throws GateException, IOException {
+        try {
+            Document d;
+            if(chunkSize > 0 && doc.getContent().size() > chunkSize) {
+                d = processChunked(doc);
+            } else {
+                d = processGate(doc);
+            }
+            countDocument(d);
+            return d;
+        } catch (GateException | IOException | RuntimeException e) {
+            documentFailed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Counts a failed document, by kind when crf_test or crf_learn failed
+     */
+    private void documentFailed(Exception e) {
+        SubprocessException failure = SubprocessException.find(e);
+        if(failure != null) {
+            metrics.documentFailed("subprocess." + failure.getKind());
+        } else {
+            metrics.documentFailed();
+        }
+    }
+
+    /**
+     * Re-tags a tagged document after an edit of its text. The edit is
+     * applied with Document.edit, which shifts the annotations after it.
+     * Only the sentences touched by the edit are tagged again, with one
+     * neighbour on each side, as the edit can move a sentence boundary.
+     * The CRF templates only look inside a sentence, so the others keep
+     * their labels. Their annotations are replaced, the others are kept, so
+     * the time depends on the size of the edit and not of the document.
+     * @param doc a document tagged by this SignTagger
+     * @param start the start of the edited text
+     * @param end the end of the edited text, start for an insertion
+     * @param replacement the new text, empty for a deletion
+     * @return the document
+     * @throws GateException if the offsets are not in the document or it
+     * cannot be tagged
+     * @throws IOException
+     */
+    public Document retag(Document doc, long start, long end, String replacement)
+            throws GateException, IOException {
+        long begin = System.nanoTime();
+        try {
+            long length = doc.getContent().size();
+            if(start < 0 || start > end || end > length) {
+                throw new InvalidOffsetException("Cannot edit " + start + "-" + end
+                        + " in a document of length " + length);
+            }
+
+            long[] region = retagRegion(doc, start, end);
+            doc.edit(start, end, new DocumentContentImpl(replacement));
+            long regionStart = region[0];
+            long regionEnd = region[1] + replacement.length() - (end - start);
+
+            removeContained(doc.getAnnotations(), regionStart, regionEnd);
+            AnnotationSet syntax = doc.getNamedAnnotationSets().get("syntax");
+            if(syntax != null) removeContained(syntax, regionStart, regionEnd);
+            if(regionEnd == regionStart) return doc;
+
+            Document part = newPlainDocument(doc.getContent().getContent(
+                    regionStart, regionEnd).toString());
+            try {
+                copyAnnotations(processGate(part), doc, regionStart);
+            } finally {
+                Factory.deleteResource(part);
+            }
+            return doc;
+        } catch (GateException | IOException | RuntimeException e) {
+            documentFailed(e);
+            throw e;
+        } finally {
+            metrics.recordStage("retag", System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * @return the start and end (before the edit) of the sentences to tag
+     * again after an edit of start-end. The whole document when it has no
+     * sentences.
+     */
+    private long[] retagRegion(Document doc, long start, long end) {
+        AnnotationSet annSet = doc.getAnnotations();
+        List<Annotation> sentences = annSet.get(
+                ANNIEConstants.SENTENCE_ANNOTATION_TYPE).inDocumentOrder();
+        long length = doc.getContent().size();
+        if(sentences.isEmpty()) return new long[]{0, length};
+
+        // the last sentence starting before the edit, the first ending after it
+        int first = -1;
+        int last = sentences.size();
+        for(int i = 0; i < sentences.size(); i++) {
+            if(sentences.get(i).getStartNode().getOffset() <= start) first = i;
+            if(last == sentences.size() && sentences.get(i).getEndNode().getOffset() >= end) {
+                last = i;
+            }
+        }
+        if(last < first) last = first;
+
+        // a CRF sequence is one sentence, so the templates never see another
+        // sentence; one neighbour on each side covers a moved boundary
+        if(first > 0) first--;
+        if(last < sentences.size() - 1) last++;
+
+        long regionStart = first < 0 ? 0 :
+                Math.min(start, sentences.get(first).getStartNode().getOffset());
+        long regionEnd = last >= sentences.size() ? length :
+                Math.max(end, sentences.get(last).getEndNode().getOffset());
+        return new long[]{regionStart, regionEnd};
+    }
+
+    private static void removeContained(AnnotationSet annSet, long start, long end) {
+        annSet.removeAll(new ArrayList<>(annSet.getContained(start, end)));
+    }
+
+    /**
+     * @see #submit(Document, long, TimeUnit)
+     */
+    public CompletableFuture<Document> submit(Document doc) {
+        return submit(doc, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Tags a document asynchronously. The waiting for a worker and the
+     * tagging happen on a virtual thread when the JVM has them (Java 21),
+     * otherwise on one of poolSize platform threads, never on the caller's.
+     *
+     * At most AsyncQueueSize documents can be submitted and not finished;
+     * beyond that the future fails at once with a RejectedExecutionException.
+     * Cancelling the future, or the timeout, interrupts the tagging: it
+     * stops waiting for a worker, or stops before the next PR. destroy
+     * cancels the futures which are not finished.
+     *
+     * @param doc the document, which the caller still has to release
+     * @param timeout how long to wait for the result, 0 for ever
+     * @param unit
+     * @return the tagged document, or the exception which stopped it
+     */
+    public CompletableFuture<Document> submit(Document doc, long timeout, TimeUnit unit) {
+        return submitTask(() -> tag(doc), false, timeout, unit);
+    }
+
+    /**
+     * Like submit, for a document created from text on the tagging thread.
+     * The document is released if it cannot be tagged, or if the future was
+     * cancelled or timed out before it was tagged; otherwise the caller has
+     * to release it.
+     */
+    public CompletableFuture<Document> submitText(String text, long timeout, TimeUnit unit) {
+        return submitTask(() -> {
+            Document doc = Factory.newDocument(text);
+            try {
+                return tag(doc);
+            } catch (GateException | IOException | RuntimeException e) {
+                release(doc);
+                throw e;
+            }
+        }, true, timeout, unit);
+    }
+
+    /**
+     * A tagging task which can throw the exceptions of tag
+     */
+    private interface TaggingTask {
+        Document run() throws GateException, IOException;
+    }
+
+    /**
+     * @param owned whether the task creates the document, which is then
+     * released if nobody is waiting for it when it is tagged
+     */
+    private CompletableFuture<Document> submitTask(TaggingTask task, boolean owned,
+            long timeout, TimeUnit unit) {
+        CompletableFuture<Document> result = new CompletableFuture<>();
+        if(!pending.tryAcquire()) {
+            result.completeExceptionally(new RejectedExecutionException(
+                    "Too many documents are waiting to be tagged"));
+            return result;
+        }
+
+        submitted.add(result);
+        result.whenComplete((d, e) -> submitted.remove(result));
+
+        // set by the task when it starts, or when it is given up before
+        AtomicBoolean claimed = new AtomicBoolean();
+        Future<?> running;
+        try {
+            running = asyncExecutor().submit(() -> {
+                if(!claimed.compareAndSet(false, true)) return;
+                // the permit is held until the work is done, even after a
+                // timeout, so AsyncQueueSize bounds what actually runs
+                try {
+                    Document doc = task.run();
+                    if(!result.complete(doc) && owned) release(doc);
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    pending.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        if(timeout > 0) {
+            ScheduledFuture<?> timer = timeouts.schedule(() -> {
+                result.completeExceptionally(new TimeoutException(
+                        "The document was not tagged in " + timeout + " " + unit));
+            }, timeout, unit);
+            result.whenComplete((d, e) -> timer.cancel(false));
+        }
+        result.whenComplete((d, e) -> {
+            // after a cancellation or a timeout nobody waits for the result
+            if(e instanceof CancellationException || e instanceof TimeoutException) {
+                // a task which has not started will not run
+                if(claimed.compareAndSet(false, true)) pending.release();
+                running.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private synchronized ExecutorService asyncExecutor() {
+        if(asyncExecutor == null) asyncExecutor = newAsyncExecutor(poolSize);
+        return asyncExecutor;
+    }
+
+    /**
+     * @return a virtual thread per task executor on Java 21 and later,
+     * otherwise a pool of daemon threads
+     */
+    private static ExecutorService newAsyncExecutor(int threads) {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // only one document per worker runs anyway, the others wait in the queue
+            return Executors.newFixedThreadPool(Math.max(1, threads), (r) -> {
+                Thread thread = new Thread(r, "signtagger-async");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void countDocument(Document doc) {
+        AnnotationSet annSet = doc.getAnnotations();
+        metrics.documentTagged(annSet.get(ANNIEConstants.TOKEN_ANNOTATION_TYPE).size(),
+                annSet.get(ANNIEConstants.SENTENCE_ANNOTATION_TYPE).size());
+        AnnotationSet syntax = doc.getNamedAnnotationSets().get("syntax");
+        if(syntax == null) return;
+        syntax.get("sync").forEach((sign) -> {
+            metrics.signTagged(String.valueOf(sign.getFeatures().get("type")));
+        });
+    }
+
     /**
      * Creates a GATE application
      * @return
      * @throws GateException
      * @throws IOException
      */
-    protected CorpusController loadController(Properties props) throws GateException, IOException{
+    protected CorpusController loadController(Properties props, Worker worker)
+            throws GateException, IOException{
         //load application
-        SerialAnalyserController application = (SerialAnalyserController) Factory.createResource(
-                        "gate.creole.SerialAnalyserController", Factory.newFeatureMap(),
+        TimedAnalyserController application = (TimedAnalyserController) Factory.createResource(
+                        TimedAnalyserController.class.getName(), Factory.newFeatureMap(),
                         Factory.newFeatureMap(), "SYNC_" + Gate.genSym() );
+        application.setMetrics(metrics);
 
         // load each standard PR 
         for(String prname:new String[]{
@@ -117,15 +761,19 @@ public class SignTagger  {
         } // for each ANNIE PR
 
         //load prepareCRF groovy script
-        ProcessingResource pr = loadSignProcessor(props);
+        ProcessingResource pr = loadSignProcessor(props, worker);
         if (pr!=null) application.add(pr);
 
         return application;
     }
 
-    ProcessingResource loadSignProcessor(Properties props) throws ResourceInstantiationException{
+    ProcessingResource loadSignProcessor(Properties props, Worker worker)
+            throws ResourceInstantiationException{
+        if("java".equals(signProcessor)) {
+            return loadJavaSignProcessor(props, worker);
+        }
+
         FeatureMap params = Factory.newFeatureMap();
-        FeatureMap scriptParams = Factory.newFeatureMap();
 
         params.put("inputASName","");
         params.put("outputASName","syntax"); 
@@ -134,27 +782,133 @@ public class SignTagger  {
                 PropertiesLoader.addFinalSlash(props.getProperty("GroovyScriptPath")) +
                         "exportCRFpr.v0.7.groovy");
 
+        params.put("scriptParams", scriptParams(props, worker));
+        ProcessingResource pr= (ProcessingResource) 
+                Factory.createResource("gate.groovy.ScriptPR", params);
+                
+        return pr;
+    }
+
+    /**
+     * @return the parameters of the Groovy script for a worker
+     */
+    private FeatureMap scriptParams(Properties props, Worker worker) {
+        FeatureMap scriptParams = Factory.newFeatureMap();
+
         //which model to use
         //if useSyntax=true, then Stanford annotations are assumed to be present 
         scriptParams.put("useSyntax","false");
         
-        //files/paths
-        String tmpFileName = "out-crf-"+(int)(100+Math.random()*900)+"-tmp.txt";
-        scriptParams.put("outFileBuffer", PropertiesLoader.addFinalSlash(props.getProperty("TempPath"))
-                + tmpFileName);
+        //files/paths, the temp file is alone in the worker's scratch directory
+        scriptParams.put("outFileBuffer", 
+                worker.scratchDir.resolve("out-crf-tmp.txt").toString());
         scriptParams.put("prefix", PropertiesLoader.addFinalSlash(props.getProperty("ResourcesPrefix")));
         scriptParams.put("crfprefix", PropertiesLoader.addFinalSlash(props.getProperty("CRFPath")));
+        scriptParams.put("subprocessManager", subprocesses);
         
         //other params
         scriptParams.put("trainMode","false");//use Gold annotations ("Original markups")
         scriptParams.put("buildMode","false");//train a new Model on the generated file
         scriptParams.put("predictMode","true");//use model to make predictions
+        
+        //decode in the JVM or with a persistent crf_test instead of a temp file
+        CRFLabeller labeller = createLabeller(props, worker);
+        if(labeller != null) scriptParams.put("crfLabeller", labeller);
 
-        params.put("scriptParams", scriptParams);
-        ProcessingResource pr= (ProcessingResource) 
-                Factory.createResource("gate.groovy.ScriptPR", params);
-                
-        return pr;
+        return scriptParams;
+    }
+
+    /**
+     * The same as the Groovy sign processor, compiled
+     */
+    private ProcessingResource loadJavaSignProcessor(Properties props, Worker worker)
+            throws ResourceInstantiationException {
+        FeatureMap params = Factory.newFeatureMap();
+        params.put("inputASName", "");
+        params.put("outputASName", "syntax");
+        params.put("useSyntax", false);
+        params.put("outFileBuffer", worker.scratchDir.resolve("out-crf-tmp.txt").toString());
+        params.put("prefix", PropertiesLoader.addFinalSlash(props.getProperty("ResourcesPrefix")));
+        params.put("crfPrefix", PropertiesLoader.addFinalSlash(props.getProperty("CRFPath")));
+        params.put("trainMode", exportMode);
+        params.put("buildModel", false);
+        params.put("predictMode", !exportMode);
+        params.put("exportFeatures", exportMode);
+        params.put("subprocessManager", subprocesses);
+        CRFLabeller labeller = workerLabeller(props, worker);
+        if(labeller != null) params.put("crfLabeller", labeller);
+        if(sentenceCache != null) params.put("sentenceCache", sentenceCache);
+
+        return (ProcessingResource) Factory.createResource(SignProcessor.class.getName(), params);
+    }
+
+    /**
+     * @return the labeller of the Java sign processor of a worker, none in
+     * export mode where nothing is predicted
+     */
+    private CRFLabeller workerLabeller(Properties props, Worker worker) {
+        return exportMode ? null : createLabeller(props, worker);
+    }
+
+    /**
+     * @return the labeller used by the sign processor, or null in "file" mode
+     */
+    private CRFLabeller createLabeller(Properties props, Worker worker) {
+        if("java".equals(decoder)) {
+            return timed(crfModel);
+        } else if("coprocess".equals(decoder)) {
+            worker.coProcess = new CRFCoProcess(
+                    new File(PropertiesLoader.addFinalSlash(props.getProperty("CRFPath"))
+                            + "crf_test"),
+                    modelFile(props), props.getProperty("CRFWrapper", "stdbuf -oL"),
+                    subprocesses);
+            return timed(worker.coProcess);
+        }
+        return null;
+    }
+
+    /**
+     * Records the time spent labelling in the "crf" stage. In "file" mode
+     * crf_test runs inside the script and is only timed as part of it.
+     */
+    private CRFLabeller timed(CRFLabeller labeller) {
+        return (rows) -> {
+            long start = System.nanoTime();
+            try {
+                return labeller.label(rows);
+            } finally {
+                metrics.recordStage("crf", System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * Each worker gets its own directory under TempPath, so the files written
+     * by the workers can never collide
+     */
+    private static Path createScratchDir(Properties props) throws IOException {
+        Path tempPath = Paths.get(props.getProperty("TempPath"));
+        Files.createDirectories(tempPath);
+        return Files.createTempDirectory(tempPath, "signtagger-worker-");
+    }
+
+    /**
+     * @return the model decoded in the JVM
+     * @throws IOException naming the model, which is read at start-up in
+     * the default CRFDecoder=java mode rather than by each crf_test call
+     */
+    private static CRFModel loadModel(File modelFile) throws IOException {
+        try {
+            return CRFModel.load(modelFile);
+        } catch (IOException e) {
+            throw new IOException("Cannot load the CRF++ model " + modelFile
+                    + " for CRFDecoder=java: " + e.getMessage(), e);
+        }
+    }
+
+    private static File modelFile(Properties props) {
+        return new File(PropertiesLoader.addFinalSlash(props.getProperty("ResourcesPrefix"))
+                + MODEL_FILE);
     }
 
     Document processGate(Document doc) throws GateException, IOException{
@@ -163,27 +917,185 @@ public class SignTagger  {
         //3. get model predictions
         //4. create obstacle detection annotations
 
-        CorpusController app = null;
+        long start = System.nanoTime();
+        Worker worker;
         try {
-            app=pool.take();
+            worker=pool.take();
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Thread.currentThread().interrupt();
+            throw new GateException("Interrupted while waiting for a worker");
+        } finally {
+            metrics.recordStage("pool.wait", System.nanoTime() - start);
         }
+        CorpusController app = worker.controller;
 
         try {
-            // Create a Corpus to use. 
-            Corpus corpus = Factory.newCorpus("BatchProcessApp Corpus");
-            app.setCorpus(corpus);
-            corpus.add(doc);
+            // the worker's corpus is reused, it only ever holds this document
+            worker.corpus.add(doc);
             // run the application
             app.execute();
-
-            // remove the document from the corpus again
-            corpus.clear();
             //doc.getAnnotations("").clear();
             return doc;
         }finally{
-            pool.add(app);
+            // remove the document from the corpus again, even if it failed
+            worker.corpus.clear();
+            pool.add(worker);
+            metrics.recordStage("document", System.nanoTime() - start);
         }
     }    
+
+    /**
+     * Splits a large document at paragraph (or sentence) boundaries, tags
+     * the chunks in parallel on the worker pool and copies their
+     * annotations back into the document with shifted offsets
+     */
+    Document processChunked(Document doc) throws GateException, IOException {
+        String text = doc.getContent().toString();
+        List<int[]> spans = DocumentChunker.split(text, chunkSize);
+        if(spans.size() == 1) return processGate(doc);
+
+        ExecutorService executor;
+        synchronized(this) {
+            if(chunkExecutor == null) {
+                chunkExecutor = Executors.newFixedThreadPool(poolSize, (r) -> {
+                    Thread thread = new Thread(r, "signtagger-chunk");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            executor = chunkExecutor;
+        }
+
+        List<Future<Document>> chunks = new ArrayList<>();
+        for(int[] span : spans) {
+            String chunkText = text.substring(span[0], span[1]);
+            chunks.add(executor.submit(() -> {
+                Document part = newPlainDocument(chunkText);
+                try {
+                    return processGate(part);
+                } catch (GateException | IOException | RuntimeException e) {
+                    Factory.deleteResource(part);
+                    throw e;
+                }
+            }));
+        }
+
+        // the chunks before next have been copied and deleted
+        int next = 0;
+        try {
+            while(next < chunks.size()) {
+                Document chunk = chunks.get(next).get();
+                int start = spans.get(next++)[0];
+                try {
+                    copyAnnotations(chunk, doc, start);
+                } finally {
+                    Factory.deleteResource(chunk);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GateException("Interrupted while tagging the chunks");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof GateException) throw (GateException) e.getCause();
+            if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new GateException(e.getCause());
+        } finally {
+            if(next < chunks.size()) discardChunks(chunks, next);
+        }
+        return doc;
+    }
+
+    /**
+     * Cancels the chunks which have not started and deletes the documents
+     * of the others once they finish. The running chunks are not
+     * interrupted, as the document of a cancelled task would be lost.
+     */
+    private static void discardChunks(List<Future<Document>> chunks, int from) {
+        List<Future<Document>> running = new ArrayList<>();
+        for(Future<Document> chunk : chunks.subList(from, chunks.size())) {
+            if(!chunk.cancel(false)) running.add(chunk);
+        }
+
+        boolean interrupted = Thread.interrupted();
+        for(Future<Document> chunk : running) {
+            while(true) {
+                try {
+                    Factory.deleteResource(chunk.get());
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    // the task deleted its own document
+                    break;
+                }
+            }
+        }
+        if(interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * @return a document with the text as it is, without markup parsing
+     */
+    private static Document newPlainDocument(String text) throws ResourceInstantiationException {
+        FeatureMap params = Factory.newFeatureMap();
+        params.put(Document.DOCUMENT_STRING_CONTENT_PARAMETER_NAME, text);
+        params.put(Document.DOCUMENT_MARKUP_AWARE_PARAMETER_NAME, Boolean.FALSE);
+        return (Document) Factory.createResource("gate.corpora.DocumentImpl", params);
+    }
+
+    /**
+     * Copies the annotations added by the controller to a chunk into the
+     * document the chunk was taken from
+     */
+    private static void copyAnnotations(Document chunk, Document doc, long offset)
+            throws InvalidOffsetException {
+        copyAnnotations(chunk.getAnnotations(), doc.getAnnotations(), offset);
+        for(String name : chunk.getAnnotationSetNames()) {
+            if(name == null || name.isEmpty() ||
+                    GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME.equals(name)) {
+                continue;
+            }
+            copyAnnotations(chunk.getAnnotations(name), doc.getAnnotations(name), offset);
+        }
+    }
+
+    private static void copyAnnotations(AnnotationSet from, AnnotationSet to, long offset)
+            throws InvalidOffsetException {
+        for(Annotation annotation : from.inDocumentOrder()) {
+            FeatureMap features = Factory.newFeatureMap();
+            features.putAll(annotation.getFeatures());
+            to.add(annotation.getStartNode().getOffset() + offset,
+                    annotation.getEndNode().getOffset() + offset,
+                    annotation.getType(), features);
+        }
+    }
+
+    /**
+     * What a worker owns: its GATE application and the corpus it runs on, a
+     * scratch directory used only by it and, in "coprocess" mode, its
+     * crf_test process
+     */
+    static class Worker {
+        final Path scratchDir;
+        CorpusController controller;
+        Corpus corpus;
+        CRFCoProcess coProcess;
+
+        Worker(Path scratchDir) {
+            this.scratchDir = scratchDir;
+        }
+
+        void destroy() {
+            if(controller != null) Factory.deleteResource(controller);
+            if(corpus != null) Factory.deleteResource(corpus);
+            if(coProcess != null) coProcess.close();
+            try (Stream<Path> files = Files.walk(scratchDir)) {
+                files.sorted(Comparator.reverseOrder()).forEach((f) -> {
+                    f.toFile().delete();
+                });
+            } catch (IOException e) {
+                Logger.getLogger(SignTagger.class.getName()).log(Level.WARNING, null, e);
+            }
+        }
+    }
 }
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counters and latency histograms of a SignTagger. They are updated by all
+ * the workers without locking and can be read at any time, either one by
+ * one or as a consistent enough snapshot.
+ *
+ * The stages timed are "pool.wait" (waiting for a free worker), "document"
+ * (the whole of processGate), "pr.&lt;name&gt;" for each processing resource
+ * of the controller and "crf" for the labelling of the sentences when the
+ * model is applied in the JVM or by a co-process.
+ *
+ * @author dinel
+ */
+
+public class SignTaggerMetrics {
+    private static final Logger LOGGER = Logger.getLogger(SignTaggerMetrics.class.getName());
+
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder sentences = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> signs = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> failureCauses = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> stages = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService reporter;
+
+    /**
+     * Records a document tagged successfully
+     */
+    public void documentTagged(int tokenCount, int sentenceCount) {
+        documents.increment();
+        tokens.add(tokenCount);
+        sentences.add(sentenceCount);
+    }
+
+    public void documentFailed() {
+        failures.increment();
+    }
+
+    /**
+     * Records a failed document with its cause, e.g. "subprocess.TIMEOUT"
+     * @param cause
+     */
+    public void documentFailed(String cause) {
+        failures.increment();
+        failureCauses.computeIfAbsent(cause, (c) -> new LongAdder()).increment();
+    }
+
+    public void signTagged(String type) {
+        signs.computeIfAbsent(type, (t) -> new LongAdder()).increment();
+    }
+
+    /**
+     * Adds a measurement to the histogram of a stage
+     * @param stage
+     * @param nanos
+     */
+    public void recordStage(String stage, long nanos) {
+        stages.computeIfAbsent(stage, (s) -> new Histogram()).record(nanos);
+    }
+
+    /**
+     * Adds a value kept by another component to the snapshots, e.g. the
+     * hits of the sentence cache
+     * @param name
+     * @param value read each time a snapshot is taken
+     */
+    public void registerGauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public long getDocuments() {
+        return documents.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getTokens() {
+        return tokens.sum();
+    }
+
+    public long getSentences() {
+        return sentences.sum();
+    }
+
+    /**
+     * @return the number of signs tagged so far, by type
+     */
+    public Map<String, Long> getSigns() {
+        Map<String, Long> counts = new TreeMap<>();
+        signs.forEach((type, count) -> counts.put(type, count.sum()));
+        return counts;
+    }
+
+    /**
+     * @return the failures recorded with a cause so far, by cause
+     */
+    public Map<String, Long> getFailureCauses() {
+        Map<String, Long> counts = new TreeMap<>();
+        failureCauses.forEach((cause, count) -> counts.put(cause, count.sum()));
+        return counts;
+    }
+
+    /**
+     * @param stage
+     * @return the histogram of the stage, or null if it was never recorded
+     */
+    public Histogram getStage(String stage) {
+        return stages.get(stage);
+    }
+
+    public Snapshot snapshot() {
+        Map<String, Histogram.Summary> summaries = new TreeMap<>();
+        stages.forEach((stage, histogram) -> summaries.put(stage, histogram.summary()));
+        Map<String, Long> values = new TreeMap<>();
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return new Snapshot(getDocuments(), getFailures(), getTokens(), getSentences(),
+                getFailureCauses(), getSigns(), summaries, values);
+    }
+
+    /**
+     * Logs a snapshot at INFO level every period seconds, until stopReporter
+     * is called
+     * @param period
+     */
+    public synchronized void startReporter(long period) {
+        if(reporter != null || period <= 0) return;
+        reporter = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread thread = new Thread(r, "signtagger-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> {
+            LOGGER.log(Level.INFO, "{0}", snapshot());
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopReporter() {
+        if(reporter == null) return;
+        reporter.shutdownNow();
+        reporter = null;
+    }
+
+    /**
+     * A latency histogram with one bucket per power of two nanoseconds, so
+     * percentiles are exact to within a factor of two
+     */
+    public static class Histogram {
+        private static final int BUCKETS = 64;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram() {
+            for(int i = 0; i < BUCKETS; i++) buckets[i] = new LongAdder();
+        }
+
+        void record(long nanos) {
+            nanos = Math.max(nanos, 0);
+            buckets[Math.max(0, BUCKETS - 1 - Long.numberOfLeadingZeros(nanos))].increment();
+            count.increment();
+            total.add(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getTotalMillis() {
+            return total.sum() / 1e6;
+        }
+
+        public double getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : total.sum() / 1e6 / n;
+        }
+
+        public double getMaxMillis() {
+            return max.get() / 1e6;
+        }
+
+        /**
+         * @param p a percentile between 0 and 100
+         * @return the upper bound of the bucket holding the percentile, in
+         * milliseconds
+         */
+        public double getPercentileMillis(double p) {
+            long[] counts = new long[BUCKETS];
+            long n = 0;
+            for(int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+                n += counts[i];
+            }
+            if(n == 0) return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(p / 100 * n));
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if(seen >= rank) {
+                    return Math.min(i == BUCKETS - 1 ? Long.MAX_VALUE : (2L << i) - 1,
+                            max.get()) / 1e6;
+                }
+            }
+            return getMaxMillis();
+        }
+
+        Summary summary() {
+            return new Summary(getCount(), getTotalMillis(), getMeanMillis(),
+                    getPercentileMillis(50), getPercentileMillis(99), getMaxMillis());
+        }
+
+        /**
+         * The values of a histogram at one moment
+         */
+        public static class Summary {
+            public final long count;
+            public final double totalMillis;
+            public final double meanMillis;
+            public final double p50Millis;
+            public final double p99Millis;
+            public final double maxMillis;
+
+            Summary(long count, double totalMillis, double meanMillis,
+                    double p50Millis, double p99Millis, double maxMillis) {
+                this.count = count;
+                this.totalMillis = totalMillis;
+                this.meanMillis = meanMillis;
+                this.p50Millis = p50Millis;
+                this.p99Millis = p99Millis;
+                this.maxMillis = maxMillis;
+            }
+
+            @Override
+            public String toString() {
+                return String.format("n=%d total=%.1fms mean=%.2fms p50=%.2fms "
+                        + "p99=%.2fms max=%.2fms", count, totalMillis, meanMillis,
+                        p50Millis, p99Millis, maxMillis);
+            }
+        }
+    }
+
+    /**
+     * All the metrics at one moment
+     */
+    public static class Snapshot {
+        public final long documents;
+        public final long failures;
+        public final long tokens;
+        public final long sentences;
+        public final Map<String, Long> failureCauses;
+        public final Map<String, Long> signs;
+        public final Map<String, Histogram.Summary> stages;
+        public final Map<String, Long> gauges;
+
+        Snapshot(long documents, long failures, long tokens, long sentences,
+                Map<String, Long> failureCauses, Map<String, Long> signs, Map<String, Histogram.Summary> stages,
+                Map<String, Long> gauges) {
+            this.documents = documents;
+            this.failures = failures;
+            this.tokens = tokens;
+            this.sentences = sentences;
+            this.failureCauses = Collections.unmodifiableMap(failureCauses);
+            this.signs = Collections.unmodifiableMap(signs);
+            this.stages = Collections.unmodifiableMap(stages);
+            this.gauges = Collections.unmodifiableMap(gauges);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder();
+            s.append(String.format("documents=%d failures=%d tokens=%d sentences=%d%n",
+                    documents, failures, tokens, sentences));
+            if(!failureCauses.isEmpty()) {
+                s.append("failureCauses=").append(failureCauses).append(String.format("%n"));
+            }
+            s.append("signs=").append(signs).append(String.format("%n"));
+            if(!gauges.isEmpty()) s.append(gauges).append(String.format("%n"));
+            stages.forEach((stage, summary) -> {
+                s.append(stage).append(": ").append(summary).append(String.format("%n"));
+            });
+            return s.toString();
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import gate.Document;
+import gate.Factory;
+import gate.util.GateException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A local HTTP service which keeps GATE and the SignTagger workers warm
+ * between requests. It listens on the loopback interface only.
+ *
+ * POST /tag?format=xml with the text of a document as the body returns the
+ * tagged document. POST /batch does the same for several documents
+ * separated by the record separator character (U+001E), and returns the
+ * results separated in the same way. GET /health describes the pool and
+ * GET /metrics returns a snapshot of the SignTagger metrics.
+ *
+ * At most queueSize documents wait for a worker; when the queue is full the
+ * request is refused with 503 and a Retry-After header. A batch is admitted
+ * as a whole or not at all, and one with more documents than the workers
+ * and the queue together is refused with 413. The handler threads only read
+ * and admit the requests; the response is sent once the documents are
+ * tagged, so a handler never waits for a worker and a request beyond the
+ * queue is always refused at once.
+ *
+ * @author dinel
+ */
+
+public class SignTaggerServer {
+    private static final Logger LOGGER = Logger.getLogger(SignTaggerServer.class.getName());
+
+    /**
+     * Separates the documents of a batch
+     */
+    static final char RECORD_SEPARATOR = '\u001E';
+
+    /**
+     * Largest request body accepted
+     */
+    static final int MAX_BODY_SIZE = 64 << 20;
+
+    private final SignTagger processor;
+    private final ThreadPoolExecutor taggers;
+
+    /**
+     * One permit per document being tagged or waiting, workers + queueSize
+     * in all. The executor's own queue is unbounded, admission is decided
+     * here so a batch takes all its permits at once.
+     */
+    private final Semaphore slots;
+    private final int capacity;
+
+    /**
+     * Read the requests, admit them and send the responses, never waiting
+     * for the taggers
+     */
+    private final ExecutorService handlers;
+    private final HttpServer server;
+
+    /**
+     * @param processor an initialised SignTagger
+     * @param port the local port, 0 for any free port
+     * @param queueSize how many documents can wait for a worker
+     * @throws IOException if the port cannot be bound
+     */
+    public SignTaggerServer(SignTagger processor, int port, int queueSize) throws IOException {
+        this.processor = processor;
+        int workers = Math.max(1, processor.getPoolSize());
+        taggers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>());
+        capacity = workers + Math.max(1, queueSize);
+        slots = new Semaphore(capacity);
+        handlers = Executors.newFixedThreadPool(Math.max(2, workers));
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(handlers);
+        server.createContext("/tag", (exchange) -> handle(exchange, false));
+        server.createContext("/batch", (exchange) -> handle(exchange, true));
+        server.createContext("/health", this::health);
+        server.createContext("/metrics", this::metrics);
+    }
+
+    public void start() {
+        server.start();
+        LOGGER.log(Level.INFO, "Listening on {0}", server.getAddress());
+    }
+
+    /**
+     * Stops accepting requests, lets the running ones finish for up to
+     * delay seconds and releases the threads. The SignTagger is not destroyed.
+     */
+    public void stop(int delay) {
+        server.stop(delay);
+        taggers.shutdownNow();
+        handlers.shutdownNow();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange, boolean batch) throws IOException {
+        // closed here unless the response is left to the taggers
+        boolean answered = true;
+        try {
+            if(!isExactPath(exchange)) {
+                send(exchange, 404, "text/plain", "Not found\n");
+                return;
+            }
+            if(!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "text/plain", "Use POST\n");
+                return;
+            }
+
+            OutputFormat format;
+            try {
+                format = OutputFormat.fromName(queryParameter(exchange, "format", "xml"));
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, "text/plain", e.getMessage() + "\n");
+                return;
+            }
+
+            String body = readBody(exchange);
+            if(body == null) {
+                send(exchange, 413, "text/plain", "Request too large\n");
+                return;
+            }
+
+            List<String> texts = new ArrayList<>();
+            if(batch) {
+                int start = 0;
+                for(int i = 0; i <= body.length(); i++) {
+                    if(i == body.length() || body.charAt(i) == RECORD_SEPARATOR) {
+                        if(i > start) texts.add(body.substring(start, i));
+                        start = i + 1;
+                    }
+                }
+            } else {
+                texts.add(body);
+            }
+
+            if(texts.size() > capacity) {
+                send(exchange, 413, "text/plain", "A batch can have at most "
+                        + capacity + " documents\n");
+                return;
+            }
+            if(!slots.tryAcquire(texts.size())) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, "text/plain", "All workers are busy\n");
+                return;
+            }
+
+            List<CompletableFuture<String>> results = new ArrayList<>();
+            for(String text : texts) {
+                CompletableFuture<String> result = new CompletableFuture<>();
+                results.add(result);
+                try {
+                    taggers.execute(() -> {
+                        try {
+                            result.complete(tag(text, format));
+                        } catch (Throwable e) {
+                            result.completeExceptionally(e);
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // the server is stopping
+                    slots.release();
+                    result.completeExceptionally(e);
+                }
+            }
+            answered = false;
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()]))
+                    .whenCompleteAsync((v, e) -> respond(exchange, format, results, e), handlers);
+        } finally {
+            if(answered) exchange.close();
+        }
+    }
+
+    /**
+     * Sends the tagged documents of a request, or 500 if one failed
+     */
+    private static void respond(HttpExchange exchange, OutputFormat format,
+            List<CompletableFuture<String>> results, Throwable failure) {
+        try {
+            if(failure != null) {
+                LOGGER.log(Level.SEVERE, null, failure instanceof CompletionException ?
+                        failure.getCause() : failure);
+                send(exchange, 500, "text/plain", "Tagging failed\n");
+                return;
+            }
+            StringBuilder response = new StringBuilder();
+            for(CompletableFuture<String> result : results) {
+                if(response.length() > 0) response.append(RECORD_SEPARATOR);
+                response.append(result.join());
+            }
+            send(exchange, 200, contentType(format), response.toString());
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "The response could not be sent", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String tag(String text, OutputFormat format) throws GateException, IOException {
+        Document doc = Factory.newDocument(text);
+        try {
+            if(processor.process(doc) == null) {
+                throw new GateException("The document could not be tagged");
+            }
+            StringWriter output = new StringWriter();
+            SimpleSyntaxApp.printDocument(doc, format.createWriter(output));
+            return output.toString();
+        } finally {
+            processor.release(doc);
+        }
+    }
+
+    private void health(HttpExchange exchange) throws IOException {
+        try {
+            if(!isExactPath(exchange)) {
+                send(exchange, 404, "text/plain", "Not found\n");
+                return;
+            }
+            String status = String.format("{\"status\":\"ok\",\"workers\":%d,"
+                    + "\"active\":%d,\"queued\":%d,\"queueCapacity\":%d}\n",
+                    taggers.getMaximumPoolSize(), taggers.getActiveCount(),
+                    taggers.getQueue().size(), capacity - taggers.getMaximumPoolSize());
+            send(exchange, 200, "application/json", status);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        try {
+            if(!isExactPath(exchange)) {
+                send(exchange, 404, "text/plain", "Not found\n");
+                return;
+            }
+            send(exchange, 200, "text/plain; charset=utf-8",
+                    processor.getMetrics().snapshot().toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * A context matches every path it prefixes, e.g. /tag matches /tagger
+     */
+    private static boolean isExactPath(HttpExchange exchange) {
+        return exchange.getRequestURI().getPath().equals(
+                exchange.getHttpContext().getPath());
+    }
+
+    private static String contentType(OutputFormat format) {
+        switch(format) {
+            case HTML: return "text/html; charset=utf-8";
+            case XML: return "application/xml; charset=utf-8";
+            case JSONL: return "application/x-ndjson; charset=utf-8";
+            default: return "text/plain; charset=utf-8";
+        }
+    }
+
+    /**
+     * @return the body, or null if it is larger than MAX_BODY_SIZE
+     */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream input = exchange.getRequestBody()) {
+            int read;
+            while((read = input.read(buffer)) > 0) {
+                if(body.size() + read > MAX_BODY_SIZE) return null;
+                body.write(buffer, 0, read);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name, String value)
+            throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if(query == null) return value;
+        for(String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if(equals > 0 && parameter.substring(0, equals).equals(name)) {
+                return URLDecoder.decode(parameter.substring(equals + 1), "UTF-8");
+            }
+        }
+        return value;
+    }
+
+    private static void send(HttpExchange exchange, int code, String contentType, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+}
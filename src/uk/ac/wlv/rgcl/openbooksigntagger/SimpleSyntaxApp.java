@@ -26,11 +26,19 @@ import gate.creole.ResourceInstantiationException;
 import gate.util.GateException;
 import gate.util.InvalidOffsetException;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -51,9 +59,11 @@ import org.apache.commons.cli.ParseException;
 
 public class SimpleSyntaxApp {
     static boolean gateInited = false;
-    static final int HTML_OUTPUT = 1;
-    static final int TXT_OUTPUT = 2;
-    static final int XML_OUTPUT = 3;
+    
+    /**
+     * Size of the buffer between the writers and the output stream
+     */
+    static final int OUTPUT_BUFFER_SIZE = 1 << 16;
 
     static void gateInit(Properties props) throws GateException, IOException{
         if(!gateInited) { 
@@ -72,131 +82,73 @@ public class SimpleSyntaxApp {
         }
     }
     
-    private static void printBeginningDocument(PrintStream output, int outputType) {
-        if(outputType == HTML_OUTPUT) output.print("<div id='annotated-doc'>");
-        if(outputType == XML_OUTPUT) output.print("<annotated-doc>");
-    }
-    
-    private static void printEndDocument(PrintStream output, int outputType) {
-        if(outputType == HTML_OUTPUT) output.print("</div><!--EDoc-->");
-        if(outputType == XML_OUTPUT) output.print("</annotated-doc>");
-    }
-    
-    private static void printBeginningSentence(PrintStream output, int outputType) {
-        if(outputType == HTML_OUTPUT) output.print("<div class='sentence'>");
-        if(outputType == XML_OUTPUT) output.print("<sentence>");
-    }
-    
-    private static void printEndSentence(PrintStream output, int outputType) {
-        if(outputType == HTML_OUTPUT) output.print("</div><!--ESent-->");
-        if(outputType == TXT_OUTPUT) output.print("\n");
-        if(outputType == XML_OUTPUT) output.print("</sentence>");
-    }
-    
-    private static void printBeginningSign(PrintStream output, int outputType, String type) {
-        if(outputType == HTML_OUTPUT) output.print("<div class='sign " + type + "'>");
-        if(outputType == XML_OUTPUT) output.print("<sign type='" + type + "'>");
-    }
-    
-    private static void printEndSign(PrintStream output, int outputType) {
-        if(outputType == HTML_OUTPUT) output.print("</div><!--ESign-->");
-        if(outputType == XML_OUTPUT) output.print("</sign>");
-    }
-    
-    private static void printSignType(PrintStream output, int outputType, String type) {
-        if(outputType == HTML_OUTPUT) output.print(
-                "<div class='sign-label label-" + type + "'>" + type + "</div><!--ESL-->");
-        if(outputType == TXT_OUTPUT) output.print(type + " ");
+    /**
+     * @return a large buffered UTF-8 writer over the standard output
+     */
+    static Writer stdoutWriter() {
+        return new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8),
+                OUTPUT_BUFFER_SIZE);
     }
     
-    private static void printToken(PrintStream output, int outputType, String token, String pos) {
-        if(outputType == TXT_OUTPUT) output.print(token);
-        if(outputType == XML_OUTPUT) {
-            if(token.trim().isEmpty()) output.print(" ");
-            else output.print("<token pos='" + pos + "'>" + token + "</token>");
-        }
-        if(outputType == HTML_OUTPUT) output.print(token);
+    public static void printDocument(Document doc, OutputFormat format) 
+            throws InvalidOffsetException, IOException {
+        DocumentWriter writer = format.createWriter(stdoutWriter());
+        printDocument(doc, writer);
+        writer.flush();
     }
     
-    private static void printStatistics(PrintStream output, HashMap<String, Integer> stats) {
-        output.print("<script>\n");
-        output.print("var stats = [];\n");
-        stats.keySet().stream().forEach((sign) -> {
-            output.print("stats['" + sign + "'] = '" + stats.get(sign) + "';\n");
-        });        
-        output.print("</script>");
+    /**
+     * Prints the tokens of each sentence with their signs. The annotations
+     * are sorted once into a RenderIndex and the document is printed in one
+     * sweep over the sentences and their tokens.
+     */
+    public static void printDocument(Document doc, DocumentWriter writer) 
+            throws InvalidOffsetException, IOException {
+        HashMap<String, Integer> statistics = new HashMap<>();
         
+        writer.beginDocument();
+        printSentences(doc, writer, statistics);
+        writer.endDocument(statistics);
     }
     
-    public static void printDocument(Document doc, int outputType) throws InvalidOffsetException {
-        PrintStream outputStream = System.out;
-        HashMap<String, Integer> statistics = new HashMap<>();
-        
-        printBeginningDocument(outputStream, outputType);
-        
-        AnnotationSet annSet = doc.getAnnotations();
-        AnnotationSet namedAnnSet = doc.getNamedAnnotationSets().get("syntax");
-        AnnotationSet sentences = annSet.get(
-                ANNIEConstants.SENTENCE_ANNOTATION_TYPE);
+    /**
+     * Prints the sentences of a document without beginning or ending it, so
+     * several documents can be printed as one, e.g. the windows of a stream
+     * @param statistics where the signs printed are counted, by type
+     */
+    static void printSentences(Document doc, DocumentWriter writer, 
+            Map<String, Integer> statistics) throws IOException {
+        RenderIndex index = new RenderIndex(doc);
         
-        for(Annotation sentence : sentences.inDocumentOrder()) {
-            AnnotationSet tokens = annSet.get(
-                    sentence.getStartNode().getOffset(), 
-                    sentence.getEndNode().getOffset());
+        for(int sentence = 0; sentence < index.sentences; sentence++) {
+            int firstToken = index.firstToken(sentence);
+            int endToken = index.endToken(sentence, firstToken);
             
-            printBeginningSentence(outputStream, outputType);
+            writer.beginSentence();
             
-            for(Annotation token : tokens.inDocumentOrder()) {                                
-                AnnotationSet signs = namedAnnSet.get(
-                        "sync",
-                        token.getStartNode().getOffset(), 
-                        token.getEndNode().getOffset());
+            for(int token = firstToken; token < endToken; token++) {
+                long start = index.tokenStart[token];
+                long end = index.tokenEnd[token];
                 
-                signs.inDocumentOrder().stream().forEach((sign) -> {
-                    if((token.getType().equals(ANNIEConstants.TOKEN_ANNOTATION_TYPE) ||
-                        token.getType().equals(ANNIEConstants.SPACE_TOKEN_ANNOTATION_TYPE)) &&
-                       sign.getStartNode().getOffset().equals(token.getStartNode().getOffset())) {
-                        printBeginningSign(outputStream, outputType, 
-                                sign.getFeatures().get("type").toString());
-                        
-                        if(statistics.containsKey(sign.getFeatures().get("type").toString())) {
-                            statistics.put(
-                                    sign.getFeatures().get("type").toString(),                             
-                                    statistics.get(sign.getFeatures().get("type").toString()) + 1);
-                        } else {
-                            statistics.put(sign.getFeatures().get("type").toString(), 1);
-                        }
-                    }
-                });
+                for(int sign = index.firstSignStartingAt(start); 
+                        sign < index.signs && index.signStart[sign] == start; sign++) {
+                    String type = index.signType[sign];
+                    writer.beginSign(type);
+                    statistics.merge(type, 1, Integer::sum);
+                }
+                
+                writer.token(index.tokenText(token), index.tokenCategory[token]);
                 
-                if(token.getType().equals(ANNIEConstants.TOKEN_ANNOTATION_TYPE) ||
-                   token.getType().equals(ANNIEConstants.SPACE_TOKEN_ANNOTATION_TYPE)) {
-                    printToken(outputStream, outputType, doc.getContent().getContent(
-                            token.getStartNode().getOffset(), 
-                            token.getEndNode().getOffset()).toString(),
-                            token.getFeatures().containsKey("category") ? 
-                                    token.getFeatures().get("category").toString() : "");
-                    /*outputStream.print(doc.getContent().getContent(
-                            token.getStartNode().getOffset(), 
-                            token.getEndNode().getOffset()));*/
+                for(int i = index.firstSignEndingAt(end); 
+                        i < index.signs && index.sortedSignEnd[i] == end; i++) {
+                    int sign = index.signsByEnd[i];
+                    // the sign must overlap the token
+                    if(index.signStart[sign] >= end) continue;
+                    writer.endSign(index.signType[sign]);
                 }
-
-                signs.inDocumentOrder().stream().forEach((sign) -> {
-                    if((token.getType().equals(ANNIEConstants.TOKEN_ANNOTATION_TYPE) ||
-                        token.getType().equals(ANNIEConstants.SPACE_TOKEN_ANNOTATION_TYPE)) &&
-                       sign.getEndNode().getOffset().equals(token.getEndNode().getOffset())) {
-                        printEndSign(outputStream, outputType);
-                        printSignType(outputStream, outputType, 
-                                sign.getFeatures().get("type").toString());
-                    }
-                });                     
             }
-            printEndSentence(outputStream, outputType);                        
-        }
-        printEndDocument(outputStream, outputType);
-                
-        if(outputType == HTML_OUTPUT) {
-            printStatistics(outputStream, statistics);
+            writer.endSentence();
         }
     }
     
@@ -210,12 +162,70 @@ public class SimpleSyntaxApp {
                 .argName("format")
                 .hasArg()
                 .desc("specifies the format of the output. Valid values for "
-                        + "<format> are txt, xml and html. The XML format is "
-                        + "the default one.")                
+                        + "<format> are txt, xml, html, jsonl and conll. The XML "
+                        + "format is the default one.")                
+                .build();
+        
+        Option outputDir = Option.builder("od")
+                .longOpt("output-dir")
+                .argName("dir")
+                .hasArg()
+                .desc("writes one output file per input in <dir>, in the same "
+                        + "subdirectories as the inputs, instead of printing all "
+                        + "the outputs on the standard output.")
+                .build();
+        
+        Option fileList = Option.builder("fl")
+                .longOpt("file-list")
+                .argName("file")
+                .hasArg()
+                .desc("reads the inputs to process from <file>, one per line.")
+                .build();
+        
+        Option server = Option.builder("s")
+                .longOpt("server")
+                .argName("port")
+                .hasArg()
+                .desc("runs a local HTTP tagging service on <port> instead of "
+                        + "processing input files.")
+                .build();
+        
+        Option export = Option.builder("ex")
+                .longOpt("export")
+                .argName("dir")
+                .hasArg()
+                .desc("exports the CRF++ training features of the inputs, from "
+                        + "their Original markups, to shards in <dir> instead of "
+                        + "tagging them.")
+                .build();
+        
+        Option shardSize = Option.builder("ss")
+                .longOpt("shard-size")
+                .argName("MB")
+                .hasArg()
+                .desc("starts a new shard of the export after <MB> million "
+                        + "characters (256 by default, 0 for one shard).")
+                .build();
+        
+        Option gzip = new Option("gzip", "compresses the shards of the export.");
+        
+        Option stream = Option.builder("st")
+                .longOpt("stream")
+                .desc("reads the input, a UTF-8 text file, in windows of "
+                        + "sentences and prints each window as soon as it is "
+                        + "tagged, so books of any size are processed in "
+                        + "bounded memory.")
                 .build();
         
         options.addOption(help);
         options.addOption(displayFormat);
+        options.addOption(outputDir);
+        options.addOption(fileList);
+        options.addOption(server);
+        options.addOption(export);
+        options.addOption(shardSize);
+        options.addOption(gzip);
+        options.addOption(stream);
         
         DefaultParser parser = new DefaultParser();
         CommandLine cmd = null;
@@ -226,13 +236,24 @@ public class SimpleSyntaxApp {
             HelpFormatter formatter = new HelpFormatter();
             formatter.printHelp( "java <classpath> "
                     + "uk.ac.wlv.rgcl.openbooksigntagger.SimpleSyntaxApp "
-                    + " [options] <input file>", options ); 
+                    + " [options] <input file|dir|glob>...", options ); 
         }
         
         return cmd;
     }
 
 
+    /**
+     * More than one input, a directory, a glob, a file list or an output 
+     * directory select the batch mode
+     */
+    private static boolean isBatch(CommandLine cmd) {
+        String[] inputs = cmd.getArgs();
+        return inputs.length != 1 || cmd.hasOption("file-list") || 
+               cmd.hasOption("output-dir") || new File(inputs[0]).isDirectory() ||
+               !new File(inputs[0]).exists();
+    }
+
     /**
      * @param args
      * @throws java.io.FileNotFoundException
@@ -267,21 +288,89 @@ public class SimpleSyntaxApp {
             
             gateInit(props);
 
+            if(cmd.hasOption("export")) {
+                props.setProperty("ExportMode", "true");
+            }
             SignTagger processor = new SignTagger(props);
             
+            OutputFormat outputFormat = OutputFormat.fromName(
+                    cmd.getOptionValue("output-format", "xml"));
+            
+            if(cmd.hasOption("server")) {
+                SignTaggerServer server = new SignTaggerServer(processor, 
+                        Integer.parseInt(cmd.getOptionValue("server")),
+                        Integer.parseInt(props.getProperty("ServerQueueSize", 
+                                String.valueOf(4 * processor.getPoolSize()))));
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    server.stop(1);
+                    processor.destroy();
+                }));
+                server.start();
+                return;
+            }
+            
             //Document doc = Factory.newDocument(new File(args[0]).toURI().toURL());           
             String[] input_file = cmd.getArgs();
-            Document doc = Factory.newDocument(new File(input_file[0]).toURI().toURL());           
-
-            processor.process(doc);
-            
-            int outputFormat = XML_OUTPUT;
-            if(cmd.hasOption("output-format")) {
-                if(cmd.getOptionValue("output-format").equals("html")) outputFormat = HTML_OUTPUT;
-                if(cmd.getOptionValue("output-format").equals("txt")) outputFormat = TXT_OUTPUT;
-            }                        
+            if(cmd.hasOption("export")) {
+                List<File> inputs = BatchProcessor.collectInputs(cmd.getArgList(),
+                        cmd.hasOption("file-list") ? 
+                                new File(cmd.getOptionValue("file-list")) : null);
+                File exportDir = new File(cmd.getOptionValue("export"));
+                exportDir.mkdirs();
+                long shardChars = Long.parseLong(cmd.getOptionValue("shard-size", "256"))
+                        * 1000000;
+                try {
+                    new CorpusExporter(processor, exportDir, shardChars, cmd.hasOption("gzip"))
+                            .export(inputs);
+                } finally {
+                    processor.destroy();
+                }
+                return;
+            }
+            if(cmd.hasOption("stream")) {
+                if(input_file.length != 1) {
+                    System.err.println("The stream mode reads exactly one input file");
+                    processor.destroy();
+                    System.exit(-1);
+                }
+                try (Writer output = stdoutWriter()) {
+                    new StreamProcessor(processor, Integer.parseInt(
+                            props.getProperty("StreamWindowSize", "65536")))
+                            .run(Paths.get(input_file[0]), outputFormat.createWriter(output));
+                } finally {
+                    processor.destroy();
+                }
+                return;
+            }
+            if(isBatch(cmd)) {
+                List<File> inputs = BatchProcessor.collectInputs(cmd.getArgList(),
+                        cmd.hasOption("file-list") ? 
+                                new File(cmd.getOptionValue("file-list")) : null);
+                File outputDir = null;
+                if(cmd.hasOption("output-dir")) {
+                    outputDir = new File(cmd.getOptionValue("output-dir"));
+                    outputDir.mkdirs();
+                }
+                try (Writer output = stdoutWriter()) {
+                    new BatchProcessor(processor, outputFormat, outputDir).run(inputs, output);
+                } finally {
+                    processor.destroy();
+                }
+                return;
+            }
             
-            SimpleSyntaxApp.printDocument(doc, outputFormat);
+            try {
+                Document doc = Factory.newDocument(new File(input_file[0]).toURI().toURL());           
+                try {
+                    processor.process(doc);
+
+                    SimpleSyntaxApp.printDocument(doc, outputFormat);
+                } finally {
+                    processor.release(doc);
+                }
+            } finally {
+                processor.destroy();
+            }
         } catch (ResourceInstantiationException e) {
             Logger.getLogger(SimpleSyntaxApp.class.getName()).log(Level.SEVERE, null, e);
         } catch (GateException | IOException e) {
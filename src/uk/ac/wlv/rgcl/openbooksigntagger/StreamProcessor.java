@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Document;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tags a text too large to be loaded as one document. The input is read
+ * through a FileChannel and cut into windows of about windowSize
+ * characters at the same paragraph and sentence breaks as DocumentChunker.
+ * Each window is tagged as a document of its own, while the next ones are
+ * read, and its sentences are printed as soon as it and the windows before
+ * it are done. Only a few windows are held at once, whatever the size of
+ * the input, and the output starts after the first window.
+ *
+ * The sign statistics, e.g. of the HTML output, are summed over the
+ * windows and printed once at the end.
+ *
+ * @author dinel
+ */
+
+public class StreamProcessor {
+    private static final Logger LOGGER = Logger.getLogger(StreamProcessor.class.getName());
+
+    /**
+     * Size of the byte and char buffers of the reader
+     */
+    static final int READ_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * A window without any break is cut at whitespace once it is this many
+     * times longer than windowSize
+     */
+    static final int MAX_WINDOW_FACTOR = 4;
+
+    private final SignTagger processor;
+    private final int windowSize;
+
+    /**
+     * @param processor
+     * @param windowSize the preferred size of a window, in characters
+     */
+    public StreamProcessor(SignTagger processor, int windowSize) {
+        this.processor = processor;
+        this.windowSize = Math.max(1, windowSize);
+    }
+
+    /**
+     * Tags a UTF-8 text file and prints it as one document. Malformed input
+     * is replaced rather than rejected.
+     * @param input
+     * @param writer
+     * @return the number of windows
+     * @throws IOException if the input cannot be read or a window cannot be
+     * tagged; the windows before it have been printed
+     */
+    public int run(Path input, DocumentWriter writer) throws IOException {
+        long start = System.nanoTime();
+        int threads = Math.max(1, processor.getPoolSize());
+        // as in BatchProcessor, a few windows per worker are kept in flight
+        int inFlight = 2 * threads;
+        Deque<CompletableFuture<Document>> pending = new ArrayDeque<>();
+        Map<String, Integer> statistics = new HashMap<>();
+        StringBuilder text = new StringBuilder();
+        int windows = 0;
+        long chars = 0;
+
+        writer.beginDocument();
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            ByteBuffer bytes = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            // a UTF-8 byte never decodes to more than one char
+            CharBuffer decoded = CharBuffer.allocate(READ_BUFFER_SIZE);
+
+            boolean eof = false;
+            while(!eof) {
+                eof = channel.read(bytes) < 0;
+                bytes.flip();
+                decoder.decode(bytes, decoded, eof);
+                if(eof) decoder.flush(decoded);
+                bytes.compact();
+                decoded.flip();
+                text.append(decoded);
+                decoded.clear();
+
+                int end;
+                while(text.length() > windowSize && (end = nextWindow(text)) > 0) {
+                    chars += end;
+                    windows++;
+                    submit(text.substring(0, end), pending, inFlight, writer, statistics);
+                    text.delete(0, end);
+                }
+            }
+            if(text.length() > 0) {
+                chars += text.length();
+                windows++;
+                submit(text.toString(), pending, inFlight, writer, statistics);
+                text.setLength(0);
+            }
+
+            while(!pending.isEmpty()) {
+                write(pending.poll(), writer, statistics);
+            }
+        } finally {
+            // after a failure: a window cancelled before it was tagged is
+            // released by submitText, one already tagged is released here
+            for(CompletableFuture<Document> window : pending) {
+                if(!window.cancel(true) && !window.isCompletedExceptionally()) {
+                    processor.release(window.join());
+                }
+            }
+        }
+        writer.endDocument(statistics);
+        writer.flush();
+
+        LOGGER.log(Level.INFO, "Tagged {0} characters in {1} windows in {2} ms",
+                new Object[]{chars, windows,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+        return windows;
+    }
+
+    /**
+     * @return the end of the next window, or -1 if more text is needed to
+     * find a break
+     */
+    private int nextWindow(StringBuilder text) {
+        int end = DocumentChunker.nextBreak(text, 0, windowSize);
+        if(end > 0 || text.length() < MAX_WINDOW_FACTOR * windowSize) return end;
+
+        // no break in a long stretch of text, e.g. a table or a list
+        for(end = text.length() - 1; end > 0; end--) {
+            if(Character.isWhitespace(text.charAt(end))) return end + 1;
+        }
+        return text.length();
+    }
+
+    private void submit(String window, Deque<CompletableFuture<Document>> pending,
+            int inFlight, DocumentWriter writer, Map<String, Integer> statistics)
+            throws IOException {
+        if(pending.size() >= inFlight) {
+            write(pending.poll(), writer, statistics);
+        }
+        pending.add(processor.submitText(window, 0, TimeUnit.MILLISECONDS));
+    }
+
+    private void write(CompletableFuture<Document> window, DocumentWriter writer,
+            Map<String, Integer> statistics) throws IOException {
+        Document doc;
+        try {
+            doc = window.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a window", e);
+        } catch (ExecutionException e) {
+            throw new IOException("A window could not be tagged", e.getCause());
+        }
+
+        try {
+            SimpleSyntaxApp.printSentences(doc, writer, statistics);
+            writer.flush();
+        } finally {
+            processor.release(doc);
+        }
+    }
+}
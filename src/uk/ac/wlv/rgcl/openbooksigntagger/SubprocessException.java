@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A child process (crf_test, crf_learn) which could not be run or did not
+ * finish properly. It describes what happened, with the command, the exit
+ * code and the end of what the process wrote on stderr.
+ *
+ * @author dinel
+ */
+
+public class SubprocessException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind {
+        /** the binary does not exist or cannot be made executable */
+        MISSING_BINARY,
+        /** no process could be started before the deadline, too many were running */
+        LIMIT,
+        /** the process did not finish before its deadline and was killed */
+        TIMEOUT,
+        /** the process exited with a non-zero code or closed its output early */
+        FAILED
+    }
+
+    private final Kind kind;
+    private final List<String> command;
+    private final int exitCode;
+    private final String stderr;
+
+    /**
+     * @param kind
+     * @param command the command line of the process
+     * @param exitCode the exit code, or -1 if the process did not exit
+     * @param stderr the last lines written by the process on stderr, or why it
+     * was not started (MISSING_BINARY, LIMIT)
+     * @param cause
+     */
+    public SubprocessException(Kind kind, List<String> command, int exitCode, String stderr,
+            Throwable cause) {
+        super(message(kind, command, exitCode, stderr), cause);
+        this.kind = kind;
+        this.command = Collections.unmodifiableList(new ArrayList<>(command));
+        this.exitCode = exitCode;
+        this.stderr = stderr == null ? "" : stderr;
+    }
+
+    private static String message(Kind kind, List<String> command, int exitCode,
+            String stderr) {
+        StringBuilder message = new StringBuilder();
+        message.append(kind).append(": ").append(String.join(" ", command));
+        if(exitCode >= 0) message.append(" (exit code ").append(exitCode).append(')');
+        if(stderr != null && !stderr.isEmpty()) {
+            // the processes which were never started have a reason, not a stderr
+            if(kind == Kind.MISSING_BINARY || kind == Kind.LIMIT) {
+                message.append(": ").append(stderr);
+            } else {
+                message.append("\nstderr:\n").append(stderr);
+            }
+        }
+        return message.toString();
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public List<String> getCommand() {
+        return command;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public String getStderr() {
+        return stderr;
+    }
+
+    /**
+     * @return the first SubprocessException in the causes of an error, or null
+     */
+    static SubprocessException find(Throwable error) {
+        for(Throwable e = error; e != null; e = e.getCause()) {
+            if(e instanceof SubprocessException) return (SubprocessException) e;
+            if(e.getCause() == e) break;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the CRF++ binaries for all the workers of a SignTagger:
+ * <ul>
+ * <li>at most maxProcesses children run at the same time, including the
+ * long running crf_test co-processes;</li>
+ * <li>each call has a deadline, after which the process is killed;</li>
+ * <li>stderr is always drained, so a verbose process cannot block on a
+ * full pipe, and its last lines are kept for the error report;</li>
+ * <li>a binary is checked and made executable once, not on every call.</li>
+ * </ul>
+ * Failures are reported as SubprocessExceptions.
+ *
+ * @author dinel
+ */
+
+public class SubprocessManager {
+    private static final Logger LOGGER = Logger.getLogger(SubprocessManager.class.getName());
+
+    /* lines of stderr kept for the error report */
+    private static final int STDERR_LINES = 20;
+    /* how long an exited process's stderr is read before it is reported,
+       a child left by a wrapper can keep it open */
+    private static final long STDERR_WAIT_MILLIS = 1000;
+
+    private static SubprocessManager defaultManager;
+
+    private final int maxProcesses;
+    private final long timeoutMillis;
+    private final Semaphore permits;
+    private final Set<String> checkedBinaries = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+            (r) -> {
+                Thread thread = new Thread(r, "signtagger-subprocess-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Reads the standard output of a process
+     */
+    public interface OutputReader {
+        void read(BufferedReader output) throws IOException;
+    }
+
+    /**
+     * @param maxProcesses the number of children which can run at once
+     * @param timeoutMillis the default deadline of a call, 0 for none. A
+     * call also waits at most this long for a free slot.
+     */
+    public SubprocessManager(int maxProcesses, long timeoutMillis) {
+        this.maxProcesses = Math.max(1, maxProcesses);
+        this.timeoutMillis = Math.max(0, timeoutMillis);
+        permits = new Semaphore(this.maxProcesses, true);
+    }
+
+    /**
+     * @return the manager used by the sign processors which were not given
+     * one: two processes per core and a deadline of five minutes
+     */
+    public static synchronized SubprocessManager getDefault() {
+        if(defaultManager == null) {
+            defaultManager = new SubprocessManager(
+                    2 * Runtime.getRuntime().availableProcessors(), 300000);
+        }
+        return defaultManager;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @return the number of children running now
+     */
+    public int getActiveProcesses() {
+        return maxProcesses - permits.availablePermits();
+    }
+
+    /**
+     * Checks that a binary exists and makes it executable. It is done once
+     * per binary; the later calls return immediately.
+     * @param binary
+     * @throws SubprocessException if the binary cannot be run
+     */
+    public void checkBinary(File binary) throws SubprocessException {
+        if(checkedBinaries.contains(binary.getPath())) return;
+        if(!binary.isFile() || (!binary.canExecute() && !binary.setExecutable(true))) {
+            throw new SubprocessException(SubprocessException.Kind.MISSING_BINARY,
+                    Collections.singletonList(binary.getPath()), -1,
+                    binary.isFile() ? "not executable" : "not found", null);
+        }
+        checkedBinaries.add(binary.getPath());
+    }
+
+    /**
+     * Checks that a command given by name, e.g. the "stdbuf" of a wrapper,
+     * can be run. A name without a slash is looked up on the PATH like the
+     * shell does; a path is checked like checkBinary.
+     * @param name
+     * @throws SubprocessException if the command cannot be found
+     */
+    public void checkCommand(String name) throws SubprocessException {
+        if(name.indexOf(File.separatorChar) >= 0) {
+            checkBinary(new File(name));
+            return;
+        }
+        if(checkedBinaries.contains(name)) return;
+        String path = System.getenv("PATH");
+        if(path != null) {
+            for(String dir : path.split(File.pathSeparator)) {
+                File binary = new File(dir.isEmpty() ? "." : dir, name);
+                if(binary.isFile() && binary.canExecute()) {
+                    checkedBinaries.add(name);
+                    return;
+                }
+            }
+        }
+        throw new SubprocessException(SubprocessException.Kind.MISSING_BINARY,
+                Collections.singletonList(name), -1, "not found on the PATH", null);
+    }
+
+    /**
+     * @see #run(List, long, OutputReader)
+     */
+    public void run(List<String> command, OutputReader reader)
+            throws IOException, InterruptedException {
+        run(command, timeoutMillis, reader);
+    }
+
+    /**
+     * Runs a command to completion with its standard input closed. The
+     * reader gets the standard output; what it leaves is discarded.
+     * @param command
+     * @param timeout the deadline in milliseconds, 0 for none
+     * @param reader
+     * @throws SubprocessException if the process cannot be started, times
+     * out or exits with a non-zero code
+     * @throws IOException if the reader fails
+     * @throws InterruptedException
+     */
+    public void run(List<String> command, long timeout, OutputReader reader)
+            throws IOException, InterruptedException {
+        try (Child child = start(command, timeout)) {
+            ScheduledFuture<?> deadline = timeout > 0 ? child.deadline(timeout) : null;
+            int exitCode;
+            try {
+                child.process.getOutputStream().close();
+                try (BufferedReader output = new BufferedReader(new InputStreamReader(
+                        child.process.getInputStream(), StandardCharsets.UTF_8))) {
+                    reader.read(output);
+                    while(output.readLine() != null) {
+                        // the rest of the output is not needed
+                    }
+                }
+                exitCode = child.process.waitFor();
+            } catch (IOException e) {
+                if(child.isTimedOut()) throw child.failure(SubprocessException.Kind.TIMEOUT, e);
+                throw e;
+            } finally {
+                if(deadline != null) deadline.cancel(false);
+            }
+            if(child.isTimedOut()) throw child.failure(SubprocessException.Kind.TIMEOUT, null);
+            if(exitCode != 0) {
+                throw new SubprocessException(SubprocessException.Kind.FAILED, command,
+                        exitCode, child.stderr(), null);
+            }
+        }
+    }
+
+    /**
+     * Starts a long running process, e.g. a crf_test co-process. It holds
+     * one of the slots until it is closed.
+     * @param command
+     * @return the running child
+     * @throws SubprocessException if no slot is free before the default
+     * deadline
+     * @throws IOException if the process cannot be started
+     * @throws InterruptedException
+     */
+    public Child start(List<String> command) throws IOException, InterruptedException {
+        return start(command, timeoutMillis);
+    }
+
+    private Child start(List<String> command, long wait)
+            throws IOException, InterruptedException {
+        if(wait > 0) {
+            if(!permits.tryAcquire(wait, TimeUnit.MILLISECONDS)) {
+                throw new SubprocessException(SubprocessException.Kind.LIMIT, command, -1,
+                        maxProcesses + " processes are already running", null);
+            }
+        } else {
+            permits.acquire();
+        }
+
+        try {
+            return new Child(command, new ProcessBuilder(command).start());
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the watchdog. The children still running are not killed.
+     */
+    public void close() {
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * A running child process
+     */
+    public class Child implements AutoCloseable {
+        private final List<String> command;
+        private final Process process;
+        private final Deque<String> stderrLines = new ArrayDeque<>();
+        private final Thread drainer;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean timedOut;
+
+        private Child(List<String> command, Process process) {
+            this.command = command;
+            this.process = process;
+
+            drainer = new Thread(() -> {
+                try (BufferedReader err = new BufferedReader(new InputStreamReader(
+                        process.getErrorStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while((line = err.readLine()) != null) {
+                        LOGGER.log(Level.FINE, "{0}: {1}", new Object[]{command.get(0), line});
+                        synchronized(stderrLines) {
+                            if(stderrLines.size() == STDERR_LINES) stderrLines.removeFirst();
+                            stderrLines.addLast(line);
+                        }
+                    }
+                } catch (IOException e) {
+                    // the process is gone
+                }
+            }, "signtagger-subprocess-stderr");
+            drainer.setDaemon(true);
+            drainer.start();
+        }
+
+        public Process getProcess() {
+            return process;
+        }
+
+        /**
+         * Kills the process if it is still running after the given time.
+         * Only the process itself is killed, so a wrapper script has to
+         * exec the binary, otherwise its children keep the output open.
+         * @return cancel it once the call finished in time
+         */
+        public ScheduledFuture<?> deadline(long millis) {
+            return watchdog.schedule(() -> {
+                if(process.isAlive()) {
+                    timedOut = true;
+                    process.destroyForcibly();
+                }
+            }, millis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * @return whether the process was killed by a deadline
+         */
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * @return the last lines written on stderr, up to the end once the
+         * process has exited
+         */
+        public String stderr() {
+            if(!process.isAlive()) {
+                try {
+                    drainer.join(STDERR_WAIT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized(stderrLines) {
+                return String.join("\n", stderrLines);
+            }
+        }
+
+        /**
+         * @return an exception describing the child, with its exit code if
+         * it has exited
+         */
+        public SubprocessException failure(SubprocessException.Kind kind, Throwable cause) {
+            int exitCode = process.isAlive() ? -1 : process.exitValue();
+            return new SubprocessException(kind, command, exitCode, stderr(), cause);
+        }
+
+        /**
+         * Kills the process if it is still running and frees its slot
+         */
+        @Override
+        public void close() {
+            if(!closed.compareAndSet(false, true)) return;
+            process.destroy();
+            permits.release();
+        }
+    }
+}
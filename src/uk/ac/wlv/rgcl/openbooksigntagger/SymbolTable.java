@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns the feature values of the mnodes, so a value is stored once and
+ * the nodes refer to it by an int id.
+ *
+ * @author dinel
+ */
+
+class SymbolTable {
+
+    private Map<String, Integer> ids = new HashMap<>();
+    private String[] symbols = new String[256];
+    private int size;
+
+    /**
+     * @param symbol a value, or null which is stored as "null" like in the
+     * crf_test input
+     * @return the id of the value, added if it is new
+     */
+    int id(String symbol) {
+        if(symbol == null) symbol = "null";
+        Integer id = ids.get(symbol);
+        if(id != null) return id;
+
+        if(size == symbols.length) symbols = Arrays.copyOf(symbols, 2 * size);
+        symbols[size] = symbol;
+        ids.put(symbol, size);
+        return size++;
+    }
+
+    String symbol(int id) {
+        return symbols[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Forgets all the symbols. The map and the array are allocated again,
+     * as a HashMap never shrinks.
+     */
+    void clear() {
+        ids = new HashMap<>();
+        symbols = new String[256];
+        size = 0;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.Annotation;
+import gate.FeatureMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The SyntaxTreeNode annotations of one sentence, indexed once so the
+ * syntactic features of all its mnodes can be derived in a single pass:
+ * parentC (category of the parent of the sign node), signC (category of the
+ * sign node) and prevC/nextC (categories of its siblings before and after
+ * it, "NA" if there are none).
+ *
+ * The sign node of an mnode is the syntax node with the largest id among
+ * those contained in the mnode. Only the siblings whose category is made
+ * of letters, or which have the same span as the mnode, are considered.
+ * This is what processSyntax did in exportCRFpr.v0.7.groovy, by querying
+ * and searching all the syntax nodes of the sentence for every mnode.
+ *
+ * @author dinel
+ */
+
+public class SyntaxFeatureIndex {
+    private static final Logger LOGGER = Logger.getLogger(SyntaxFeatureIndex.class.getName());
+
+    private static final String NA = "NA";
+
+    /* the syntax nodes sorted by start offset */
+    private final Annotation[] nodes;
+    private final long[] starts;
+
+    private final Map<Integer, Annotation> byId = new HashMap<>();
+    private final Map<Integer, Annotation> parents = new HashMap<>();
+    private final Map<Integer, Children> children = new HashMap<>();
+
+    /**
+     * @param syntaxNodes the SyntaxTreeNode annotations contained in the
+     * sentence. When a node is listed by several parents, the first one
+     * iterated is its parent.
+     */
+    public SyntaxFeatureIndex(Collection<Annotation> syntaxNodes) {
+        nodes = syntaxNodes.toArray(new Annotation[syntaxNodes.size()]);
+        for(Annotation node : nodes) {
+            byId.put(node.getId(), node);
+        }
+        for(Annotation node : nodes) {
+            List<?> consists = (List<?>) node.getFeatures().get("consists");
+            if(consists == null) continue;
+            for(Object child : consists) {
+                if(child instanceof Integer) parents.putIfAbsent((Integer) child, node);
+            }
+        }
+
+        Arrays.sort(nodes, (a, b) -> Long.compare(a.getStartNode().getOffset(),
+                b.getStartNode().getOffset()));
+        starts = new long[nodes.length];
+        for(int i = 0; i < nodes.length; i++) {
+            starts[i] = nodes[i].getStartNode().getOffset();
+        }
+    }
+
+    /**
+     * Adds parentC, prevC, signC and nextC to each mnode which has a sign
+     * node with a parent
+     * @param mnodes the mnodes of the sentence
+     */
+    public void addFeatures(Collection<Annotation> mnodes) {
+        for(Annotation mnode : mnodes) {
+            Object[] features = features(mnode.getStartNode().getOffset(),
+                    mnode.getEndNode().getOffset());
+            if(features == null) continue;
+
+            FeatureMap map = mnode.getFeatures();
+            map.put("parentC", features[0]);
+            map.put("prevC", features[1]);
+            map.put("signC", features[2]);
+            map.put("nextC", features[3]);
+        }
+    }
+
+    /**
+     * @param start start offset of an mnode
+     * @param end end offset of an mnode
+     * @return parentC, prevC, signC and nextC, or null if there is no sign
+     * node or it has no parent
+     */
+    public Object[] features(long start, long end) {
+        Annotation signNode = signNode(start, end);
+        if(signNode == null) {
+            LOGGER.log(Level.WARNING, "Missing syntax nodes!!");
+            return null;
+        }
+        Annotation parent = parents.get(signNode.getId());
+        if(parent == null) return null;
+
+        Children siblings = children.computeIfAbsent(parent.getId(), (id) -> new Children(parent));
+        Object[] chunks = siblings.around(signNode.getId(), start, end);
+        return new Object[]{parent.getFeatures().get("cat"), chunks[0],
+            signNode.getFeatures().get("cat"), chunks[1]};
+    }
+
+    /**
+     * @return the node with the largest id contained in the span
+     */
+    private Annotation signNode(long start, long end) {
+        int i = Arrays.binarySearch(starts, start);
+        if(i < 0) i = -i - 1;
+        while(i > 0 && starts[i - 1] == start) i--;
+
+        Annotation signNode = null;
+        for(; i < nodes.length && starts[i] <= end; i++) {
+            if(nodes[i].getEndNode().getOffset() <= end &&
+                    (signNode == null || nodes[i].getId() > signNode.getId())) {
+                signNode = nodes[i];
+            }
+        }
+        return signNode;
+    }
+
+    /**
+     * The children of a node, in the order of its consists feature
+     */
+    private class Children {
+        final int[] ids;
+        final long[] starts;
+        final long[] ends;
+        final Object[] cats;
+        /* whether the category is made of letters */
+        final boolean[] chunk;
+        /* position of each child by id, when the ids grow with the position */
+        final Map<Integer, Integer> positions;
+        /* the nearest chunk before and after each position, or -1 */
+        final int[] prevChunk;
+        final int[] nextChunk;
+
+        Children(Annotation parent) {
+            List<Annotation> resolved = new ArrayList<>();
+            for(Object id : (List<?>) parent.getFeatures().get("consists")) {
+                Annotation child = byId.get(id);
+                if(child != null) resolved.add(child);
+            }
+
+            int size = resolved.size();
+            ids = new int[size];
+            starts = new long[size];
+            ends = new long[size];
+            cats = new Object[size];
+            chunk = new boolean[size];
+            boolean ordered = true;
+            for(int i = 0; i < size; i++) {
+                Annotation child = resolved.get(i);
+                ids[i] = child.getId();
+                starts[i] = child.getStartNode().getOffset();
+                ends[i] = child.getEndNode().getOffset();
+                cats[i] = child.getFeatures().get("cat");
+                chunk[i] = cats[i] != null && cats[i].toString().matches("[A-Za-z]+");
+                if(i > 0 && ids[i] <= ids[i - 1]) ordered = false;
+            }
+
+            if(!ordered) {
+                positions = null;
+                prevChunk = null;
+                nextChunk = null;
+                return;
+            }
+            positions = new HashMap<>();
+            prevChunk = new int[size];
+            nextChunk = new int[size];
+            int last = -1;
+            for(int i = 0; i < size; i++) {
+                positions.put(ids[i], i);
+                prevChunk[i] = last;
+                if(chunk[i]) last = i;
+            }
+            last = -1;
+            for(int i = size - 1; i >= 0; i--) {
+                nextChunk[i] = last;
+                if(chunk[i]) last = i;
+            }
+        }
+
+        /**
+         * @return the categories of the last sibling before the sign node
+         * and of the first one after it
+         */
+        Object[] around(int signId, long start, long end) {
+            Integer position = positions == null ? null : positions.get(signId);
+            if(position == null) return scan(signId, start, end);
+
+            // siblings which are not chunks count only if they have the
+            // span of the mnode, and they can only be between the sign
+            // node and the nearest chunks
+            Object prev = NA;
+            int p = prevChunk[position];
+            for(int i = position - 1; i > p; i--) {
+                if(sameSpan(i, start, end)) {
+                    p = i;
+                    break;
+                }
+            }
+            if(p >= 0) prev = cats[p];
+
+            Object next = NA;
+            int n = nextChunk[position];
+            int limit = n < 0 ? ids.length : n;
+            for(int i = position + 1; i < limit; i++) {
+                if(sameSpan(i, start, end)) {
+                    n = i;
+                    break;
+                }
+            }
+            if(n >= 0) next = cats[n];
+            return new Object[]{prev, next};
+        }
+
+        /**
+         * The definition itself, used when the ids are not in the order of
+         * the children
+         */
+        private Object[] scan(int signId, long start, long end) {
+            Object prev = NA;
+            Object next = NA;
+            boolean foundNext = false;
+            for(int i = 0; i < ids.length; i++) {
+                if(!chunk[i] && !sameSpan(i, start, end)) continue;
+                if(ids[i] < signId) {
+                    prev = cats[i];
+                } else if(ids[i] > signId && !foundNext) {
+                    next = cats[i];
+                    foundNext = true;
+                }
+            }
+            return new Object[]{prev, next};
+        }
+
+        private boolean sameSpan(int i, long start, long end) {
+            return starts[i] == start && ends[i] == end;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import gate.ProcessingResource;
+import gate.creole.ExecutionException;
+import gate.creole.SerialAnalyserController;
+import gate.creole.metadata.CreoleResource;
+
+/**
+ * A SerialAnalyserController which records how long each of its processing
+ * resources takes in the SignTagger metrics, as the stage "pr.&lt;class&gt;",
+ * and which can be interrupted between them.
+ * It must be registered with the CREOLE register before it is created.
+ *
+ * @author dinel
+ */
+
+@CreoleResource(name = "SignTagger Timed Controller",
+        comment = "A serial analyser controller which times its PRs")
+public class TimedAnalyserController extends SerialAnalyserController {
+
+    private transient SignTaggerMetrics metrics;
+
+    public void setMetrics(SignTaggerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Stops before the next PR when the thread was interrupted, e.g. when
+     * an asynchronous tagging is cancelled
+     */
+    @Override
+    protected void runComponent(int componentIndex) throws ExecutionException {
+        if(Thread.currentThread().isInterrupted()) {
+            throw new ExecutionException("Interrupted before "
+                    + prList.get(componentIndex).getName());
+        }
+        if(metrics == null) {
+            super.runComponent(componentIndex);
+            return;
+        }
+
+        ProcessingResource pr = prList.get(componentIndex);
+        long start = System.nanoTime();
+        try {
+            super.runComponent(componentIndex);
+        } finally {
+            metrics.recordStage("pr." + pr.getClass().getSimpleName(),
+                    System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Writes one sentence per line, each sign followed by its type
+ * 
+ * @author dinel
+ */
+
+class TxtWriter implements DocumentWriter {
+    private final Writer output;
+    
+    TxtWriter(Writer output) {
+        this.output = output;
+    }
+
+    @Override
+    public void beginDocument() {
+    }
+
+    @Override
+    public void endDocument(Map<String, Integer> statistics) {
+    }
+
+    @Override
+    public void beginSentence() {
+    }
+
+    @Override
+    public void endSentence() throws IOException {
+        output.write('\n');
+    }
+
+    @Override
+    public void beginSign(String type) {
+    }
+
+    @Override
+    public void endSign(String type) throws IOException {
+        output.write(type);
+        output.write(' ');
+    }
+
+    @Override
+    public void token(String text, String pos) throws IOException {
+        output.write(text);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 dinel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.wlv.rgcl.openbooksigntagger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Writes the document as XML. Token text and attribute values are escaped.
+ * 
+ * @author dinel
+ */
+
+class XmlWriter implements DocumentWriter {
+    private final Writer output;
+    
+    XmlWriter(Writer output) {
+        this.output = output;
+    }
+
+    @Override
+    public void beginDocument() throws IOException {
+        output.write("<annotated-doc>");
+    }
+
+    @Override
+    public void endDocument(Map<String, Integer> statistics) throws IOException {
+        output.write("</annotated-doc>");
+    }
+
+    @Override
+    public void beginSentence() throws IOException {
+        output.write("<sentence>");
+    }
+
+    @Override
+    public void endSentence() throws IOException {
+        output.write("</sentence>");
+    }
+
+    @Override
+    public void beginSign(String type) throws IOException {
+        output.write("<sign type='");
+        escape(type);
+        output.write("'>");
+    }
+
+    @Override
+    public void endSign(String type) throws IOException {
+        output.write("</sign>");
+    }
+
+    @Override
+    public void token(String text, String pos) throws IOException {
+        if(text.trim().isEmpty()) {
+            output.write(' ');
+            return;
+        }
+        output.write("<token pos='");
+        escape(pos);
+        output.write("'>");
+        escape(text);
+        output.write("</token>");
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+    
+    /**
+     * Writes text escaped for use in element content and in attribute values
+     * delimited by single quotes. Characters not allowed in XML are dropped.
+     */
+    private void escape(String text) throws IOException {
+        int start = 0;
+        for(int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String entity;
+            switch(c) {
+                case '<': entity = "&lt;"; break;
+                case '>': entity = "&gt;"; break;
+                case '&': entity = "&amp;"; break;
+                case '\'': entity = "&apos;"; break;
+                case '"': entity = "&quot;"; break;
+                default:
+                    entity = c < 0x20 && c != '\t' && c != '\n' && c != '\r' ? "" : null;
+            }
+            if(entity != null) {
+                output.write(text, start, i - start);
+                output.write(entity);
+                start = i + 1;
+            }
+        }
+        output.write(text, start, text.length() - start);
+    }
+}